@@ -0,0 +1,51 @@
+/**
+ * Bounds the number of clients accepted per loop iteration, halving the bound on every lagging loop tick and
+ * growing it back additively once the lag is normal again.
+ */
+public class AcceptThrottle implements MetricsSource {
+    private static final int MAX_ACCEPTS_PER_ITERATION = 64;
+    private static final int ACCEPTS_BUDGET_INCREMENT = 4;
+
+    private final long overloadLagNanos;
+
+    private int acceptsBudget = MAX_ACCEPTS_PER_ITERATION;
+    private boolean isOverloaded;
+
+    private long overloadedTicksNumber;
+    private long acceptedClientsNumber;
+    private long throttledIterationsNumber;
+
+    public AcceptThrottle(long overloadLagNanos) {
+        this.overloadLagNanos = overloadLagNanos;
+    }
+
+    public void onLoopTick(long loopLagNanos) {
+        this.isOverloaded = loopLagNanos > this.overloadLagNanos;
+        if (this.isOverloaded) {
+            ++this.overloadedTicksNumber;
+            this.acceptsBudget = Math.max(1, this.acceptsBudget / 2);
+        } else {
+            this.acceptsBudget = Math.min(MAX_ACCEPTS_PER_ITERATION, this.acceptsBudget + ACCEPTS_BUDGET_INCREMENT);
+        }
+    }
+
+    public int getAcceptsBudget() {
+        return acceptsBudget;
+    }
+
+    public void recordAccepts(int acceptedNumber) {
+        this.acceptedClientsNumber += acceptedNumber;
+        if (acceptedNumber == this.acceptsBudget) {
+            ++this.throttledIterationsNumber;
+        }
+    }
+
+    @Override
+    public void appendMetrics(StringBuilder metrics) {
+        metrics.append("accept_budget_per_iteration ").append(this.acceptsBudget).append('\n')
+                .append("accept_overloaded ").append(this.isOverloaded ? 1 : 0).append('\n')
+                .append("accept_overloaded_ticks ").append(this.overloadedTicksNumber).append('\n')
+                .append("accept_clients ").append(this.acceptedClientsNumber).append('\n')
+                .append("accept_budget_exhausted_iterations ").append(this.throttledIterationsNumber).append('\n');
+    }
+}
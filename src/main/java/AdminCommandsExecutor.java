@@ -0,0 +1,64 @@
+import java.util.List;
+
+public class AdminCommandsExecutor {
+    private static final int DEFAULT_TOP_LIMIT = 10;
+
+    private static final String USAGE = """
+            Available commands:
+              metrics
+              top destinations bytes|connections [limit]
+              top clients bytes|connections [limit]
+            """;
+
+    private final Socks5ProxyServer associatingProxyServer;
+
+    public AdminCommandsExecutor(Socks5ProxyServer proxyServer) {
+        this.associatingProxyServer = proxyServer;
+    }
+
+    public String execute(String command) {
+        String[] words = command.toLowerCase().split("\\s+");
+        if (words.length == 1 && words[0].equals("metrics")) {
+            StringBuilder metrics = new StringBuilder();
+            this.associatingProxyServer.appendMetrics(metrics);
+            return metrics.toString();
+        }
+        if (words.length >= 3 && words[0].equals("top")) {
+            return this.executeTopCommand(words);
+        }
+        return USAGE;
+    }
+
+    private String executeTopCommand(String[] words) {
+        int limit = DEFAULT_TOP_LIMIT;
+        if (words.length > 3) {
+            try {
+                limit = Integer.parseInt(words[3]);
+            } catch (NumberFormatException e) {
+                return USAGE;
+            }
+            if (limit < 1) {
+                return USAGE;
+            }
+        }
+        TrafficHeavyHitters heavyHitters = this.associatingProxyServer.getHeavyHitters();
+        String target = words[1] + " " + words[2];
+        List<HeavyHitter> topHitters;
+        switch (target) {
+            case "destinations bytes" -> topHitters = heavyHitters.getTopDestinationsByBytes(limit);
+            case "destinations connections" -> topHitters = heavyHitters.getTopDestinationsByConnections(limit);
+            case "clients bytes" -> topHitters = heavyHitters.getTopClientsByBytes(limit);
+            case "clients connections" -> topHitters = heavyHitters.getTopClientsByConnections(limit);
+            default -> {
+                return USAGE;
+            }
+        }
+        StringBuilder answer = new StringBuilder();
+        for (HeavyHitter hitter : topHitters) {
+            answer.append(hitter.getKey()).append('\t')
+                    .append(hitter.getCount()).append('\t')
+                    .append(hitter.getError()).append('\n');
+        }
+        return answer.toString();
+    }
+}
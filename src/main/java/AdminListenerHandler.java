@@ -0,0 +1,36 @@
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+
+public class AdminListenerHandler implements InetNodeHandler {
+    private static final Logger logger = LogManager.getLogger(AdminListenerHandler.class);
+
+    private final ServerSocketChannel adminServerSocketChannel;
+    private final SelectionKey adminServerSelectionKey;
+
+    private final AdminCommandsExecutor commandsExecutor;
+
+    public AdminListenerHandler(Selector selector, String address, int port, Socks5ProxyServer proxyServer)
+            throws IOException {
+        this.commandsExecutor = new AdminCommandsExecutor(proxyServer);
+        this.adminServerSocketChannel = ServerSocketChannel.open();
+        NonBlockingChannelServiceman.setNonBlock(adminServerSocketChannel);
+        this.adminServerSocketChannel.bind(new InetSocketAddress(address, port));
+        this.adminServerSelectionKey = this.adminServerSocketChannel.register(selector, SelectionKey.OP_ACCEPT, this);
+        logger.info("Admin console is listening, IPv4: " + address + ". Port: " + port);
+    }
+
+    @Override
+    public void handleEvent() {
+        try {
+            new AdminSessionHandler(this.adminServerSelectionKey, this.commandsExecutor);
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+    }
+}
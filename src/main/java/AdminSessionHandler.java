@@ -0,0 +1,110 @@
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One admin query per connection: reads a single command line, writes the answer and closes.
+ * Runs on the selector thread like every other handler, so queries read the statistics
+ * without any locking.
+ */
+public class AdminSessionHandler implements InetNodeHandler, Closeable {
+    private static final Logger logger = LogManager.getLogger(AdminSessionHandler.class);
+
+    private static final int BYTE_BUFFER_DEFAULT_CAPACITY = 512;
+
+    private static final byte COMMAND_TERMINATOR = '\n';
+
+    private final SocketChannel adminSocketChannel;
+    private final SelectionKey adminSelectionKey;
+
+    private final AdminCommandsExecutor commandsExecutor;
+
+    private final ByteBuffer commandBuffer = ByteBuffer.allocate(BYTE_BUFFER_DEFAULT_CAPACITY);
+    private ByteBuffer answerBuffer;
+
+    public AdminSessionHandler(SelectionKey adminServerSelectionKey, AdminCommandsExecutor commandsExecutor)
+            throws IOException {
+        this.commandsExecutor = commandsExecutor;
+        this.adminSocketChannel = ((ServerSocketChannel) adminServerSelectionKey.channel()).accept();
+        NonBlockingChannelServiceman.setNonBlock(adminSocketChannel);
+        this.adminSelectionKey = this.adminSocketChannel.register(
+                adminServerSelectionKey.selector(), SelectionKey.OP_READ, this);
+    }
+
+    private void readCommand() {
+        try {
+            int readBytesNumber = this.adminSocketChannel.read(this.commandBuffer);
+            if (readBytesNumber < 0) {
+                this.close();
+                return;
+            }
+            if (!isCommandComplete()) {
+                return;
+            }
+            String command = new String(this.commandBuffer.array(), 0, this.commandBuffer.position(),
+                    StandardCharsets.US_ASCII).trim();
+            logger.info("Admin command received: " + command);
+            this.answerBuffer = ByteBuffer.wrap(
+                    this.commandsExecutor.execute(command).getBytes(StandardCharsets.US_ASCII));
+            this.adminSelectionKey.interestOps(SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            this.handleException(e);
+        }
+    }
+
+    private boolean isCommandComplete() {
+        if (!this.commandBuffer.hasRemaining()) {
+            return true;
+        }
+        for (int i = 0; i < this.commandBuffer.position(); ++i) {
+            if (this.commandBuffer.get(i) == COMMAND_TERMINATOR) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeAnswer() {
+        try {
+            this.adminSocketChannel.write(this.answerBuffer);
+            if (!this.answerBuffer.hasRemaining()) {
+                this.close();
+            }
+        } catch (IOException e) {
+            this.handleException(e);
+        }
+    }
+
+    private void handleException(Exception exception) {
+        logger.error(exception.getMessage());
+        this.close();
+    }
+
+    @Override
+    public void handleEvent() {
+        if (this.adminSelectionKey.isReadable()) {
+            this.readCommand();
+            return;
+        }
+        if (this.adminSelectionKey.isWritable()) {
+            this.writeAnswer();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.adminSelectionKey.cancel();
+        try {
+            this.adminSocketChannel.close();
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+    }
+}
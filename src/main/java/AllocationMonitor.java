@@ -0,0 +1,73 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Heap allocated by the selector thread, split into relay and handshake events and compared with their budgets.
+ * Relay events must not allocate in steady state; a handshake may allocate its handlers, channels and keys.
+ */
+public class AllocationMonitor implements MetricsSource {
+    static final long RELAY_BUDGET_BYTES_PER_MB = 1024;
+    static final long HANDSHAKE_BUDGET_BYTES = 16384;
+
+    private static final long BYTES_IN_MB = 1024 * 1024;
+
+    private final com.sun.management.ThreadMXBean threadMXBean;
+    private final boolean isSupported;
+
+    private final RelayScheduler relayScheduler;
+
+    private long relayAllocatedBytes;
+    private long handshakeAllocatedBytes;
+    private long handshakesNumber;
+
+    public AllocationMonitor(RelayScheduler relayScheduler) {
+        this.relayScheduler = relayScheduler;
+        java.lang.management.ThreadMXBean platformThreadMXBean = ManagementFactory.getThreadMXBean();
+        if (platformThreadMXBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) platformThreadMXBean).isThreadAllocatedMemorySupported()) {
+            this.threadMXBean = (com.sun.management.ThreadMXBean) platformThreadMXBean;
+            this.threadMXBean.setThreadAllocatedMemoryEnabled(true);
+            this.isSupported = true;
+        } else {
+            this.threadMXBean = null;
+            this.isSupported = false;
+        }
+    }
+
+    /**
+     * Returns the bytes allocated so far by the calling thread, to be passed back to one of the record methods.
+     */
+    public long getAllocatedBytes() {
+        return this.isSupported ? this.threadMXBean.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    public void recordEvent(EventPriority priority, long allocatedBytesBefore) {
+        long allocatedBytes = this.getAllocatedBytes() - allocatedBytesBefore;
+        if (priority == EventPriority.RELAY) {
+            this.relayAllocatedBytes += allocatedBytes;
+        } else {
+            this.handshakeAllocatedBytes += allocatedBytes;
+        }
+    }
+
+    public void recordHandshakesStarted(int handshakesNumber) {
+        this.handshakesNumber += handshakesNumber;
+    }
+
+    @Override
+    public void appendMetrics(StringBuilder metrics) {
+        if (!this.isSupported) {
+            return;
+        }
+        long relayedMegabytes = this.relayScheduler.getRelayedBytesTotal() / BYTES_IN_MB;
+        long relayBytesPerMb = relayedMegabytes == 0 ? 0 : this.relayAllocatedBytes / relayedMegabytes;
+        long handshakeBytes = this.handshakesNumber == 0 ? 0 : this.handshakeAllocatedBytes / this.handshakesNumber;
+        metrics.append("alloc_relay_bytes ").append(this.relayAllocatedBytes).append('\n')
+                .append("alloc_relay_bytes_per_mb ").append(relayBytesPerMb).append('\n')
+                .append("alloc_relay_over_budget ").append(relayBytesPerMb > RELAY_BUDGET_BYTES_PER_MB ? 1 : 0)
+                .append('\n')
+                .append("alloc_handshake_bytes ").append(this.handshakeAllocatedBytes).append('\n')
+                .append("alloc_handshake_bytes_per_tunnel ").append(handshakeBytes).append('\n')
+                .append("alloc_handshake_over_budget ").append(handshakeBytes > HANDSHAKE_BUDGET_BYTES ? 1 : 0)
+                .append('\n');
+    }
+}
@@ -0,0 +1,48 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tunnel rebuilt from a capture file. Relayed chunk sizes are kept in order,
+ * positive for client to remote host and negative for remote host to client.
+ */
+public class CapturedTunnel {
+    private final int tunnelId;
+    private final long openedMicros;
+    private final List<Integer> relayedChunksSizes = new ArrayList<>();
+
+    private byte[] clientGreeting;
+    private byte connectionResult = Socks5MessagesExplorer.getGeneralFailureIndicator();
+
+    public CapturedTunnel(int tunnelId, long openedMicros) {
+        this.tunnelId = tunnelId;
+        this.openedMicros = openedMicros;
+    }
+
+    public int getTunnelId() {
+        return tunnelId;
+    }
+
+    public long getOpenedMicros() {
+        return openedMicros;
+    }
+
+    public List<Integer> getRelayedChunksSizes() {
+        return relayedChunksSizes;
+    }
+
+    public byte[] getClientGreeting() {
+        return clientGreeting;
+    }
+
+    public void setClientGreeting(byte[] clientGreeting) {
+        this.clientGreeting = clientGreeting;
+    }
+
+    public byte getConnectionResult() {
+        return connectionResult;
+    }
+
+    public void setConnectionResult(byte connectionResult) {
+        this.connectionResult = connectionResult;
+    }
+}
@@ -0,0 +1,5 @@
+public enum CircuitState {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+}
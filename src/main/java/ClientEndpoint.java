@@ -0,0 +1,17 @@
+/**
+ * Side of a tunnel that requested the connection: a SOCKS client or a multiplexed stream of a peer proxy.
+ * Notified by the {@link RemoteHostHandler} serving it.
+ */
+public interface ClientEndpoint {
+    void informAboutConnectionResult(byte responseType);
+
+    void informAboutHostDataOccurrence();
+
+    void informAboutRequestsConsumption();
+
+    void recordRelayedBytes(int bytesNumber);
+
+    boolean isActive();
+
+    void close();
+}
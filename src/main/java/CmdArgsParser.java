@@ -1,15 +1,29 @@
 import lombok.Getter;
 import org.apache.commons.cli.*;
 
+import java.net.InetSocketAddress;
 import java.util.*;
 
 public class CmdArgsParser {
     private static final int DEFAULT_PROXY_SERVER_PORT = 1080;
+    private static final int DEFAULT_ADMIN_CONSOLE_PORT = 0;
+    private static final long DEFAULT_HEAVY_HITTERS_WINDOW_SECONDS = 60;
+    private static final long DEFAULT_STALL_THRESHOLD_MILLIS = 100;
+    private static final int DEFAULT_MUX_LISTEN_PORT = 0;
+    private static final int DEFAULT_MUX_CONNECTIONS_NUMBER = 4;
+    private static final long DEFAULT_DNS_SNAPSHOT_INTERVAL_SECONDS = 60;
+    private static final long DEFAULT_CONNECT_TIMEOUT_SECONDS = 10;
+    private static final int DEFAULT_RELAY_QUANTUM_BYTES = 65536;
+    private static final long DEFAULT_BUSY_POLL_MICROS = 0;
+    private static final long DEFAULT_OVERLOAD_LAG_MILLIS = 20;
+    private static final long DEFAULT_RELAY_MEMORY_LIMIT_MEGABYTES = 256;
+    private static final long DEFAULT_TCP_INFO_INTERVAL_SECONDS = 0;
+    private static final int MAX_PORT = 65535;
 
     private final Options cmdOptions = new Options();
 
     @Getter
-    private int proxyServerPort;
+    private ProxyServerSettings proxyServerSettings;
 
     public CmdArgsParser() {
         OptionSettings proxyServerPortSettings = OptionSettings.builder()
@@ -18,7 +32,145 @@ public class CmdArgsParser {
                 .hasArg(true)
                 .description("Proxy server network port, through which clients can connect to it")
                 .build();
-        this.addAllSettingsToOptions(Collections.singletonList(proxyServerPortSettings));
+        OptionSettings adminConsolePortSettings = OptionSettings.builder()
+                .opt("a")
+                .longOpt("adminConsolePort")
+                .hasArg(true)
+                .description("Local port of the admin console answering statistics queries. Disabled by default")
+                .build();
+        OptionSettings heavyHittersWindowSettings = OptionSettings.builder()
+                .opt("w")
+                .longOpt("heavyHittersWindow")
+                .hasArg(true)
+                .description("Sliding window in seconds over which top destinations and clients are tracked")
+                .build();
+        OptionSettings spliceRelaySettings = OptionSettings.builder()
+                .opt("z")
+                .longOpt("spliceRelay")
+                .hasArg(false)
+                .description("Relay established tunnels with Linux splice(2) when the native library is available")
+                .build();
+        OptionSettings stallThresholdSettings = OptionSettings.builder()
+                .opt("s")
+                .longOpt("stallThreshold")
+                .hasArg(true)
+                .description("Selector loop iteration time in milliseconds after which the loop thread stack is logged")
+                .build();
+        OptionSettings muxListenPortSettings = OptionSettings.builder()
+                .opt("m")
+                .longOpt("muxListenPort")
+                .hasArg(true)
+                .description("Port on which peer proxies open multiplexed connections. Disabled by default")
+                .build();
+        OptionSettings muxUpstreamProxySettings = OptionSettings.builder()
+                .opt("u")
+                .longOpt("muxUpstreamProxy")
+                .hasArg(true)
+                .description("host:port or [IPv6]:port of a peer proxy to which all tunnels are multiplexed "
+                        + "instead of direct connects")
+                .build();
+        OptionSettings muxConnectionsNumberSettings = OptionSettings.builder()
+                .opt("c")
+                .longOpt("muxConnections")
+                .hasArg(true)
+                .description("Number of multiplexed connections kept open to the upstream proxy")
+                .build();
+        OptionSettings captureFileSettings = OptionSettings.builder()
+                .opt("r")
+                .longOpt("captureFile")
+                .hasArg(true)
+                .description("Memory-mapped ring file to capture tunnel timing and chunk sizes into. Disabled by default")
+                .build();
+        OptionSettings captureRedactedSettings = OptionSettings.builder()
+                .opt("R")
+                .longOpt("captureRedacted")
+                .hasArg(false)
+                .description("Zero destination addresses of captured CONNECT requests")
+                .build();
+        OptionSettings dnsCacheFileSettings = OptionSettings.builder()
+                .opt("d")
+                .longOpt("dnsCacheFile")
+                .hasArg(true)
+                .description("File the DNS cache is snapshotted to and warmed from at startup. Disabled by default")
+                .build();
+        OptionSettings dnsSnapshotIntervalSettings = OptionSettings.builder()
+                .opt("D")
+                .longOpt("dnsSnapshotInterval")
+                .hasArg(true)
+                .description("Seconds between DNS cache snapshots")
+                .build();
+        OptionSettings connectTimeoutSettings = OptionSettings.builder()
+                .opt("t")
+                .longOpt("connectTimeout")
+                .hasArg(true)
+                .description("Seconds a connect to a remote host may take before the tunnel is answered with a failure")
+                .build();
+        OptionSettings relayQuantumSettings = OptionSettings.builder()
+                .opt("q")
+                .longOpt("relayQuantum")
+                .hasArg(true)
+                .description("Bytes a tunnel direction may read per readiness event before yielding to other tunnels")
+                .build();
+        OptionSettings busyPollSettings = OptionSettings.builder()
+                .opt("b")
+                .longOpt("busyPoll")
+                .hasArg(true)
+                .description("Microseconds the selector loop may spin on selectNow after activity before parking. "
+                        + "Trades CPU for latency, 0 (default) disables spinning")
+                .build();
+        OptionSettings optimisticConnectSettings = OptionSettings.builder()
+                .opt("o")
+                .longOpt("optimisticConnect")
+                .hasArg(false)
+                .description("Answer CONNECT with success as soon as the connect to the remote host has started")
+                .build();
+        OptionSettings overloadLagSettings = OptionSettings.builder()
+                .opt("l")
+                .longOpt("overloadLag")
+                .hasArg(true)
+                .description("Event loop lag in milliseconds above which new clients are accepted at a reduced rate")
+                .build();
+        OptionSettings relayMemoryLimitSettings = OptionSettings.builder()
+                .opt("M")
+                .longOpt("relayMemoryLimit")
+                .hasArg(true)
+                .description("Megabytes of relay buffers above which tunnels stop growing their buffers")
+                .build();
+        OptionSettings tcpInfoIntervalSettings = OptionSettings.builder()
+                .opt("T")
+                .longOpt("tcpInfoInterval")
+                .hasArg(true)
+                .description("Seconds between kernel TCP statistics samples of every tunnel socket. "
+                        + "Needs the native library, 0 (default) disables sampling")
+                .build();
+        OptionSettings allocationTrackingSettings = OptionSettings.builder()
+                .opt("A")
+                .longOpt("allocationTracking")
+                .hasArg(false)
+                .description("Count heap allocated by the selector thread per relayed megabyte and per handshake. "
+                        + "Costs two allocation counter reads per event")
+                .build();
+        this.addAllSettingsToOptions(Arrays.asList(
+                proxyServerPortSettings,
+                adminConsolePortSettings,
+                heavyHittersWindowSettings,
+                spliceRelaySettings,
+                stallThresholdSettings,
+                muxListenPortSettings,
+                muxUpstreamProxySettings,
+                muxConnectionsNumberSettings,
+                captureFileSettings,
+                captureRedactedSettings,
+                dnsCacheFileSettings,
+                dnsSnapshotIntervalSettings,
+                connectTimeoutSettings,
+                relayQuantumSettings,
+                busyPollSettings,
+                optimisticConnectSettings,
+                overloadLagSettings,
+                relayMemoryLimitSettings,
+                tcpInfoIntervalSettings,
+                allocationTrackingSettings));
     }
 
     private void addAllSettingsToOptions(List<OptionSettings> optionSettings) {
@@ -34,17 +186,113 @@ public class CmdArgsParser {
         CommandLineParser parser = new DefaultParser();
         CommandLine commandLine = parser.parse(cmdOptions, args);
 
+        this.proxyServerSettings = ProxyServerSettings.builder()
+                .proxyServerPort(parsePortOrDefault(commandLine, "p", DEFAULT_PROXY_SERVER_PORT))
+                .adminConsolePort(parsePortOrDefault(commandLine, "a", DEFAULT_ADMIN_CONSOLE_PORT))
+                .heavyHittersWindowMillis(1000 * parseLongAtLeast(commandLine, "w",
+                        DEFAULT_HEAVY_HITTERS_WINDOW_SECONDS, 1))
+                .spliceRelayRequested(commandLine.hasOption("z"))
+                .stallThresholdMillis(parseLongAtLeast(commandLine, "s", DEFAULT_STALL_THRESHOLD_MILLIS, 1))
+                .muxListenPort(parsePortOrDefault(commandLine, "m", DEFAULT_MUX_LISTEN_PORT))
+                .muxUpstreamProxyAddress(parseHostAndPort(commandLine, "u"))
+                .muxConnectionsNumber(parseIntAtLeast(commandLine, "c", DEFAULT_MUX_CONNECTIONS_NUMBER, 1))
+                .captureFile(commandLine.getOptionValue("r"))
+                .captureRedacted(commandLine.hasOption("R"))
+                .dnsCacheFile(commandLine.getOptionValue("d"))
+                .dnsSnapshotIntervalMillis(1000 * parseLongAtLeast(commandLine, "D",
+                        DEFAULT_DNS_SNAPSHOT_INTERVAL_SECONDS, 1))
+                .connectTimeoutMillis(1000 * parseLongAtLeast(commandLine, "t", DEFAULT_CONNECT_TIMEOUT_SECONDS, 1))
+                .relayQuantumBytes(parseIntAtLeast(commandLine, "q", DEFAULT_RELAY_QUANTUM_BYTES, 1))
+                .busyPollMicros(parseLongAtLeast(commandLine, "b", DEFAULT_BUSY_POLL_MICROS, 0))
+                .optimisticConnect(commandLine.hasOption("o"))
+                .overloadLagMillis(parseLongAtLeast(commandLine, "l", DEFAULT_OVERLOAD_LAG_MILLIS, 1))
+                .relayMemoryLimitBytes(1024 * 1024 * parseLongAtLeast(commandLine, "M",
+                        DEFAULT_RELAY_MEMORY_LIMIT_MEGABYTES, 1))
+                .tcpInfoIntervalMillis(1000 * parseLongAtLeast(commandLine, "T", DEFAULT_TCP_INFO_INTERVAL_SECONDS, 0))
+                .allocationTracking(commandLine.hasOption("A"))
+                .build();
+    }
+
+    private int parseIntAtLeast(CommandLine commandLine, String opt, int defaultValue, int minValue)
+            throws ParseException {
+        long value = parseLongAtLeast(commandLine, opt, defaultValue, minValue);
+        if (value > Integer.MAX_VALUE) {
+            throw new ParseException("Option -" + opt + " must be at most " + Integer.MAX_VALUE + ", got " + value);
+        }
+        return (int) value;
+    }
+
+    private long parseLongAtLeast(CommandLine commandLine, String opt, long defaultValue, long minValue)
+            throws ParseException {
+        if (!commandLine.hasOption(opt)) {
+            return defaultValue;
+        }
+        String optionValue = commandLine.getOptionValue(opt);
+        long value;
+        try {
+            value = Long.parseLong(optionValue);
+        } catch (NumberFormatException e) {
+            throw new ParseException("Option -" + opt + " expects a number, got " + optionValue);
+        }
+        if (value < minValue) {
+            throw new ParseException("Option -" + opt + " must be at least " + minValue + ", got " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Parses {@code host:port} or {@code [IPv6 address]:port} and resolves the host.
+     */
+    private InetSocketAddress parseHostAndPort(CommandLine commandLine, String opt) throws ParseException {
+        String hostAndPort = commandLine.getOptionValue(opt);
+        if (hostAndPort == null) {
+            return null;
+        }
+        int separatorIndex = hostAndPort.lastIndexOf(':');
+        String host = separatorIndex < 0 ? "" : hostAndPort.substring(0, separatorIndex);
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        } else if (host.contains(":")) {
+            throw new ParseException("Option -" + opt + " expects an IPv6 address in brackets, got " + hostAndPort);
+        }
+        if (host.isEmpty()) {
+            throw new ParseException("Option -" + opt + " expects host:port, got " + hostAndPort);
+        }
+        int port = parsePort(opt, hostAndPort.substring(separatorIndex + 1));
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            throw new ParseException("Option -" + opt + " names a host that cannot be resolved: " + host);
+        }
+        return address;
+    }
+
+    /**
+     * The default applies only when the option is absent, so the ports disabled by default cannot be given as 0.
+     */
+    private int parsePortOrDefault(CommandLine commandLine, String opt, int defaultValue) throws ParseException {
+        if (!commandLine.hasOption(opt)) {
+            return defaultValue;
+        }
+        return parsePort(opt, commandLine.getOptionValue(opt));
+    }
+
+    private int parsePort(String opt, String optionValue) throws ParseException {
+        int port;
         try {
-            proxyServerPort = Integer.parseInt(commandLine.getOptionValue("p"));
-        } catch (Exception e) {
-            proxyServerPort = DEFAULT_PROXY_SERVER_PORT;
+            port = Integer.parseInt(optionValue);
+        } catch (NumberFormatException e) {
+            throw new ParseException("Option -" + opt + " expects a port number, got " + optionValue);
+        }
+        if (port < 1 || port > MAX_PORT) {
+            throw new ParseException("Option -" + opt + " expects a port from 1 to " + MAX_PORT + ", got " + port);
         }
+        return port;
     }
 
     @Override
     public String toString() {
         return "CmdArgsParser{" +
-                "proxyServerPort=" + proxyServerPort +
+                "proxyServerSettings=" + proxyServerSettings +
                 '}';
     }
-}
\ No newline at end of file
+}
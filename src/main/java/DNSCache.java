@@ -0,0 +1,176 @@
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A-record answers of {@link DNSResolver} with their expiry times, least recently used ones are evicted first.
+ * An expired answer is still served for {@link #STALE_SERVING_LIMIT_MILLIS} while it is revalidated.
+ * The snapshot thread copies the entries, so every access to them holds their lock.
+ * <p>
+ * Snapshot layout: magic, version, snapshot wall-clock millis (long), entries number, then per entry
+ * hostname length (short), hostname (UTF-8), IPv4 address, remaining TTL millis (long).
+ */
+public class DNSCache implements MetricsSource {
+    private static final Logger logger = LogManager.getLogger(DNSCache.class);
+
+    private static final int MAGIC = 0x53354443;
+    private static final int VERSION = 1;
+
+    static final int MAX_ENTRIES_NUMBER = 65536;
+    private static final long STALE_SERVING_LIMIT_MILLIS = 600000;
+    private static final int IPv4_ADDRESS_SIZE = 4;
+
+    private final Map<String, DNSCacheEntry> entriesByHostnames = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DNSCacheEntry> eldest) {
+            return size() > MAX_ENTRIES_NUMBER;
+        }
+    };
+
+    private long hitsNumber;
+    private long staleHitsNumber;
+    private long missesNumber;
+
+    public static String normalizeHostname(String hostname) {
+        String lowerCaseHostname = hostname.toLowerCase(Locale.ROOT);
+        return lowerCaseHostname.endsWith(".")
+                ? lowerCaseHostname.substring(0, lowerCaseHostname.length() - 1)
+                : lowerCaseHostname;
+    }
+
+    /**
+     * Returns a fresh or a stale entry, or null when the hostname has to be resolved.
+     */
+    public DNSCacheEntry lookup(String hostname, long currentTimeMillis) {
+        DNSCacheEntry entry;
+        synchronized (this.entriesByHostnames) {
+            entry = this.entriesByHostnames.get(hostname);
+            if (entry != null && currentTimeMillis - entry.getExpiresAtMillis() >= STALE_SERVING_LIMIT_MILLIS) {
+                this.entriesByHostnames.remove(hostname);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            ++this.missesNumber;
+        } else if (entry.isExpired(currentTimeMillis)) {
+            ++this.staleHitsNumber;
+        } else {
+            ++this.hitsNumber;
+        }
+        return entry;
+    }
+
+    public void put(String hostname, InetAddress address, long ttlMillis, long currentTimeMillis) {
+        DNSCacheEntry entry = new DNSCacheEntry(address, currentTimeMillis + ttlMillis);
+        synchronized (this.entriesByHostnames) {
+            this.entriesByHostnames.put(hostname, entry);
+        }
+    }
+
+    public void saveSnapshot(Path snapshotPath) throws IOException {
+        long currentTimeMillis = System.currentTimeMillis();
+        ByteArrayOutputStream snapshotBytes = new ByteArrayOutputStream();
+        DataOutputStream snapshot = new DataOutputStream(snapshotBytes);
+        Map<String, DNSCacheEntry> entriesToSave;
+        synchronized (this.entriesByHostnames) {
+            entriesToSave = Map.copyOf(this.entriesByHostnames);
+        }
+        snapshot.writeInt(MAGIC);
+        snapshot.writeInt(VERSION);
+        snapshot.writeLong(currentTimeMillis);
+        snapshot.writeInt(entriesToSave.size());
+        for (var item : entriesToSave.entrySet()) {
+            byte[] hostnameBytes = item.getKey().getBytes(StandardCharsets.UTF_8);
+            snapshot.writeShort(hostnameBytes.length);
+            snapshot.write(hostnameBytes);
+            snapshot.write(item.getValue().getAddress().getAddress());
+            snapshot.writeLong(item.getValue().getExpiresAtMillis() - currentTimeMillis);
+        }
+        snapshot.flush();
+        Path temporaryPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        Files.write(temporaryPath, snapshotBytes.toByteArray());
+        Files.move(temporaryPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads entries that are still fresh or within the stale serving limit. Returns the number of loaded entries.
+     */
+    public int loadSnapshot(Path snapshotPath) throws IOException {
+        MappedByteBuffer snapshot;
+        try (FileChannel snapshotChannel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            snapshot = snapshotChannel.map(FileChannel.MapMode.READ_ONLY, 0, snapshotChannel.size());
+        }
+        try {
+            if (snapshot.getInt() != MAGIC || snapshot.getInt() != VERSION) {
+                throw new IOException(snapshotPath + " is not a DNS cache snapshot");
+            }
+            long currentTimeMillis = System.currentTimeMillis();
+            long elapsedMillis = Math.max(0, currentTimeMillis - snapshot.getLong());
+            int entriesNumber = snapshot.getInt();
+            int loadedEntriesNumber = 0;
+            byte[] addressBytes = new byte[IPv4_ADDRESS_SIZE];
+            for (int i = 0; i < entriesNumber; ++i) {
+                byte[] hostnameBytes = new byte[snapshot.getShort()];
+                snapshot.get(hostnameBytes);
+                snapshot.get(addressBytes);
+                long remainingTtlMillis = snapshot.getLong() - elapsedMillis;
+                if (remainingTtlMillis <= -STALE_SERVING_LIMIT_MILLIS) {
+                    continue;
+                }
+                this.put(new String(hostnameBytes, StandardCharsets.UTF_8), InetAddress.getByAddress(addressBytes),
+                        remainingTtlMillis, currentTimeMillis);
+                ++loadedEntriesNumber;
+            }
+            return loadedEntriesNumber;
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IOException(snapshotPath + " is truncated");
+        }
+    }
+
+    public void startSnapshotting(Path snapshotPath, long snapshotIntervalMillis) {
+        Thread snapshotter = new Thread(() -> this.snapshotPeriodically(snapshotPath, snapshotIntervalMillis),
+                "dns-cache-snapshotter");
+        snapshotter.setDaemon(true);
+        snapshotter.start();
+    }
+
+    private void snapshotPeriodically(Path snapshotPath, long snapshotIntervalMillis) {
+        while (true) {
+            try {
+                Thread.sleep(snapshotIntervalMillis);
+                this.saveSnapshot(snapshotPath);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                logger.error("DNS cache snapshot failed: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void appendMetrics(StringBuilder metrics) {
+        int entriesNumber;
+        synchronized (this.entriesByHostnames) {
+            entriesNumber = this.entriesByHostnames.size();
+        }
+        metrics.append("dns_cache_entries ").append(entriesNumber).append('\n')
+                .append("dns_cache_hits ").append(this.hitsNumber).append('\n')
+                .append("dns_cache_stale_hits ").append(this.staleHitsNumber).append('\n')
+                .append("dns_cache_misses ").append(this.missesNumber).append('\n');
+    }
+}
@@ -0,0 +1,33 @@
+import java.net.InetAddress;
+
+public class DNSCacheEntry {
+    private final InetAddress address;
+    private final long expiresAtMillis;
+
+    private long revalidationRequestedAtMillis;
+
+    public DNSCacheEntry(InetAddress address, long expiresAtMillis) {
+        this.address = address;
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+
+    public boolean isExpired(long currentTimeMillis) {
+        return currentTimeMillis >= this.expiresAtMillis;
+    }
+
+    public long getRevalidationRequestedAtMillis() {
+        return revalidationRequestedAtMillis;
+    }
+
+    public void setRevalidationRequestedAtMillis(long revalidationRequestedAtMillis) {
+        this.revalidationRequestedAtMillis = revalidationRequestedAtMillis;
+    }
+}
@@ -5,6 +5,7 @@ import org.xbill.DNS.*;
 import org.xbill.DNS.Record;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
@@ -16,6 +17,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
 
 public class DNSResolver implements InetNodeHandler {
     private static final Logger logger = LogManager.getLogger(DNSResolver.class);
@@ -26,6 +28,8 @@ public class DNSResolver implements InetNodeHandler {
 
     private static final int RESEND_REQUEST_PERIOD_MILLIS = 10000;
 
+    private final DNSCache dnsCache;
+
     private DatagramChannel dnsResolverDatagramChannel;
     private SelectionKey dnsResolverSelectionKey;
 
@@ -34,14 +38,40 @@ public class DNSResolver implements InetNodeHandler {
 
     private final Map<Name, CustomPair<DNSRequest, Instant>> pendingConfirmationRequests = new ConcurrentHashMap<>();
 
-    public void startResolving(Selector proxyServerSelector, Socks5ProxyServer proxyServer) throws IOException {
+    public DNSResolver(DNSCache dnsCache) {
+        this.dnsCache = dnsCache;
+    }
+
+    /**
+     * Answers from the cache right away when possible, a stale answer is served and revalidated in the background.
+     */
+    public void resolve(ClientHandler clientHandler, String hostname) {
+        long currentTimeMillis = System.currentTimeMillis();
+        DNSCacheEntry cachedEntry = this.dnsCache.lookup(DNSCache.normalizeHostname(hostname), currentTimeMillis);
+        if (cachedEntry == null) {
+            this.addDNSRequestToQueue(DNSRequest.builder()
+                    .correspondingClientHandler(clientHandler)
+                    .requiredRemoteHostname(hostname)
+                    .build());
+            return;
+        }
+        if (cachedEntry.isExpired(currentTimeMillis)
+                && currentTimeMillis - cachedEntry.getRevalidationRequestedAtMillis() > RESEND_REQUEST_PERIOD_MILLIS) {
+            cachedEntry.setRevalidationRequestedAtMillis(currentTimeMillis);
+            this.addDNSRequestToQueue(DNSRequest.builder()
+                    .requiredRemoteHostname(hostname)
+                    .build());
+        }
+        clientHandler.setRequiredHostInetAddress(cachedEntry.getAddress());
+    }
+
+    public void startResolving(Selector proxyServerSelector) throws IOException {
         InetSocketAddress dnsResolverInetSocketAddress = ResolverConfig.getCurrentConfig().server();
         this.dnsResolverDatagramChannel = DatagramChannel.open();
         this.dnsResolverDatagramChannel.socket().connect(dnsResolverInetSocketAddress);
         NonBlockingChannelServiceman.setNonBlock(dnsResolverDatagramChannel);
         this.dnsResolverSelectionKey = this.dnsResolverDatagramChannel
-            .register(proxyServerSelector, NO_INTERESTED_OPTIONS);
-        proxyServer.putInetNodeHandlerByItsChannel(this.dnsResolverDatagramChannel, this);
+            .register(proxyServerSelector, NO_INTERESTED_OPTIONS, this);
         logger.info("DNS Resolver has started...");
     }
 
@@ -85,15 +115,21 @@ public class DNSResolver implements InetNodeHandler {
             Name resolvingHostname = remoteResolverResponse.getQuestion().getName();
             this.pendingConfirmationRequests.remove(resolvingHostname);
             List<Record> foundInetAddressRecords = remoteResolverResponse.getSection(Section.ANSWER);
-            ClientHandler correspondingClientHandler = this.clientHandlersDnsResponses.get(resolvingHostname);
+            ClientHandler correspondingClientHandler = this.clientHandlersDnsResponses.remove(resolvingHostname);
             for (var foundRecord : foundInetAddressRecords) {
                 if (foundRecord.getType() == Type.A) {
-                    correspondingClientHandler.setRequiredHostInetAddress(
-                            ((ARecord) foundRecord).getAddress());
+                    InetAddress foundAddress = ((ARecord) foundRecord).getAddress();
+                    this.dnsCache.put(DNSCache.normalizeHostname(resolvingHostname.toString()), foundAddress,
+                            TimeUnit.SECONDS.toMillis(foundRecord.getTTL()), System.currentTimeMillis());
+                    if (correspondingClientHandler != null) {
+                        correspondingClientHandler.setRequiredHostInetAddress(foundAddress);
+                    }
                     return;
                 }
             }
-            correspondingClientHandler.setRequiredHostInetAddress(null);
+            if (correspondingClientHandler != null) {
+                correspondingClientHandler.setRequiredHostInetAddress(null);
+            }
         } catch (IOException e) {
             logger.error(e.getMessage());
         }
@@ -116,7 +152,9 @@ public class DNSResolver implements InetNodeHandler {
 
         try {
             Name resolvingName = Name.fromString(requestToSent.getRequiredRemoteHostname(), Name.root);
-            this.clientHandlersDnsResponses.put(resolvingName, requestToSent.getCorrespondingClientHandler());
+            if (requestToSent.getCorrespondingClientHandler() != null) {
+                this.clientHandlersDnsResponses.put(resolvingName, requestToSent.getCorrespondingClientHandler());
+            }
             Record dnsRecord = Record.newRecord(
                     resolvingName,
                     Type.A,
@@ -0,0 +1,104 @@
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-destination (address:port) circuit breaker. After {@link #FAILURES_THRESHOLD} consecutive connect
+ * failures or timeouts the circuit opens and CONNECTs are answered at once with the last failure's reply code.
+ * After the open period a single CONNECT is let through as a probe: its success closes the circuit, its failure
+ * opens it again for twice as long. The shortest open period is never below the connect timeout, so a probe
+ * to a black-holed destination times out before the next one is let through.
+ */
+public class DestinationCircuitBreaker implements MetricsSource {
+    private static final Logger logger = LogManager.getLogger(DestinationCircuitBreaker.class);
+
+    private static final int MAX_TRACKED_DESTINATIONS_NUMBER = 4096;
+    static final int FAILURES_THRESHOLD = 5;
+    private static final long MIN_OPEN_DURATION_MILLIS = 5000;
+    private static final long MAX_OPEN_DURATION_MILLIS = 120000;
+
+    private final long minOpenDurationMillis;
+    private final long maxOpenDurationMillis;
+
+    private final Map<String, DestinationHealth> healthByDestinations =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, DestinationHealth> eldest) {
+                    return size() > MAX_TRACKED_DESTINATIONS_NUMBER;
+                }
+            };
+
+    private long fastFailuresNumber;
+    private long probesNumber;
+
+    public DestinationCircuitBreaker(long connectTimeoutMillis) {
+        this.minOpenDurationMillis = Math.max(MIN_OPEN_DURATION_MILLIS, connectTimeoutMillis);
+        this.maxOpenDurationMillis = Math.max(MAX_OPEN_DURATION_MILLIS, this.minOpenDurationMillis);
+    }
+
+    public static String getDestinationKey(InetAddress hostAddress, int hostPort) {
+        return hostAddress.getHostAddress() + ":" + hostPort;
+    }
+
+    /**
+     * Returns the succeeded indicator when a connect may be started, otherwise the reply code to answer with.
+     */
+    public byte checkConnectAllowed(String destinationKey, long currentTimeMillis) {
+        DestinationHealth health = this.healthByDestinations.get(destinationKey);
+        if (health == null || health.getState() == CircuitState.CLOSED) {
+            return Socks5MessagesExplorer.getSucceededIndicator();
+        }
+        if (currentTimeMillis >= health.getReopenAtMillis()) {
+            health.setState(CircuitState.HALF_OPEN);
+            health.setReopenAtMillis(currentTimeMillis + this.minOpenDurationMillis);
+            ++this.probesNumber;
+            logger.info("Probing destination " + destinationKey);
+            return Socks5MessagesExplorer.getSucceededIndicator();
+        }
+        ++this.fastFailuresNumber;
+        return health.getLastFailureReplyCode();
+    }
+
+    public void recordSuccess(String destinationKey) {
+        DestinationHealth health = this.healthByDestinations.remove(destinationKey);
+        if (health != null && health.getState() != CircuitState.CLOSED) {
+            logger.info("Circuit of " + destinationKey + " closed");
+        }
+    }
+
+    public void recordFailure(String destinationKey, byte replyCode, long currentTimeMillis) {
+        DestinationHealth health = this.healthByDestinations.computeIfAbsent(destinationKey,
+                key -> new DestinationHealth());
+        health.setLastFailureReplyCode(replyCode);
+        health.setConsecutiveFailuresNumber(health.getConsecutiveFailuresNumber() + 1);
+        boolean isTripping = health.getState() == CircuitState.HALF_OPEN
+                || (health.getState() == CircuitState.CLOSED
+                && health.getConsecutiveFailuresNumber() >= FAILURES_THRESHOLD);
+        if (!isTripping) {
+            return;
+        }
+        long openDurationMillis = Math.min(this.maxOpenDurationMillis,
+                this.minOpenDurationMillis << Math.min(health.getTripsNumber(), Integer.SIZE));
+        health.setTripsNumber(health.getTripsNumber() + 1);
+        health.setState(CircuitState.OPEN);
+        health.setReopenAtMillis(currentTimeMillis + openDurationMillis);
+        logger.warn("Circuit of " + destinationKey + " opened for " + openDurationMillis + " ms");
+    }
+
+    @Override
+    public void appendMetrics(StringBuilder metrics) {
+        int openCircuitsNumber = 0;
+        for (DestinationHealth health : this.healthByDestinations.values()) {
+            if (health.getState() != CircuitState.CLOSED) {
+                ++openCircuitsNumber;
+            }
+        }
+        metrics.append("circuit_breaker_tracked_destinations ").append(this.healthByDestinations.size()).append('\n')
+                .append("circuit_breaker_open_circuits ").append(openCircuitsNumber).append('\n')
+                .append("circuit_breaker_fast_failures ").append(this.fastFailuresNumber).append('\n')
+                .append("circuit_breaker_probes ").append(this.probesNumber).append('\n');
+    }
+}
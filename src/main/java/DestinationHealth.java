@@ -0,0 +1,47 @@
+public class DestinationHealth {
+    private CircuitState state = CircuitState.CLOSED;
+    private int consecutiveFailuresNumber;
+    private int tripsNumber;
+    private long reopenAtMillis;
+    private byte lastFailureReplyCode;
+
+    public CircuitState getState() {
+        return state;
+    }
+
+    public void setState(CircuitState state) {
+        this.state = state;
+    }
+
+    public int getConsecutiveFailuresNumber() {
+        return consecutiveFailuresNumber;
+    }
+
+    public void setConsecutiveFailuresNumber(int consecutiveFailuresNumber) {
+        this.consecutiveFailuresNumber = consecutiveFailuresNumber;
+    }
+
+    public int getTripsNumber() {
+        return tripsNumber;
+    }
+
+    public void setTripsNumber(int tripsNumber) {
+        this.tripsNumber = tripsNumber;
+    }
+
+    public long getReopenAtMillis() {
+        return reopenAtMillis;
+    }
+
+    public void setReopenAtMillis(long reopenAtMillis) {
+        this.reopenAtMillis = reopenAtMillis;
+    }
+
+    public byte getLastFailureReplyCode() {
+        return lastFailureReplyCode;
+    }
+
+    public void setLastFailureReplyCode(byte lastFailureReplyCode) {
+        this.lastFailureReplyCode = lastFailureReplyCode;
+    }
+}
@@ -0,0 +1,26 @@
+public class DurationStatistics {
+    private static final long NANOS_IN_MICRO = 1000;
+
+    private long samplesNumber;
+    private long totalNanos;
+    private long maxNanos;
+
+    public void record(long durationNanos) {
+        ++this.samplesNumber;
+        this.totalNanos += durationNanos;
+        if (durationNanos > this.maxNanos) {
+            this.maxNanos = durationNanos;
+        }
+    }
+
+    public long getSamplesNumber() {
+        return samplesNumber;
+    }
+
+    public void appendMetrics(StringBuilder metrics, String name) {
+        long meanNanos = this.samplesNumber == 0 ? 0 : this.totalNanos / this.samplesNumber;
+        metrics.append(name).append("_count ").append(this.samplesNumber).append('\n')
+                .append(name).append("_mean_us ").append(meanNanos / NANOS_IN_MICRO).append('\n')
+                .append(name).append("_max_us ").append(this.maxNanos / NANOS_IN_MICRO).append('\n');
+    }
+}
@@ -0,0 +1,146 @@
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Selector loop metrics: iteration time, event time per handler type, ready keys per select and loop lag.
+ * A watchdog thread logs the loop thread stack when an iteration runs past the stall threshold,
+ * only the stall records are shared with it.
+ */
+public class EventLoopMonitor implements MetricsSource {
+    private static final Logger logger = LogManager.getLogger(EventLoopMonitor.class);
+
+    private static final long IDLE = 0;
+
+    private final Thread loopThread;
+    private final long tickNanos;
+    private final long stallThresholdNanos;
+
+    private final DurationStatistics iterationsStatistics = new DurationStatistics();
+    private final DurationStatistics lagStatistics = new DurationStatistics();
+    private final Map<Class<?>, DurationStatistics> handlersStatistics = new HashMap<>();
+
+    private long readyKeysTotal;
+    private long readyKeysMax;
+    private long nextTickDeadlineNanos;
+    private long lastLagNanos;
+    private long interestOpsUpdatesNumber;
+
+    private volatile long iterationStartNanos = IDLE;
+    private final AtomicLong stallsNumber = new AtomicLong();
+    private volatile String lastStallReport = "";
+
+    public EventLoopMonitor(Thread loopThread, long tickMillis, long stallThresholdMillis) {
+        this.loopThread = loopThread;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.stallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(stallThresholdMillis);
+        this.nextTickDeadlineNanos = System.nanoTime() + this.tickNanos;
+    }
+
+    public void startWatchdog() {
+        Thread watchdog = new Thread(this::watchLoopThread, "event-loop-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    public long getSelectTimeoutMillis() {
+        long untilDeadlineNanos = this.nextTickDeadlineNanos - System.nanoTime();
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(untilDeadlineNanos));
+    }
+
+    public long getLastLagNanos() {
+        return lastLagNanos;
+    }
+
+    /**
+     * Called right after select returns. Returns true when the loop tick is due.
+     */
+    public boolean onIterationStart(int readyKeysNumber) {
+        long currentNanos = System.nanoTime();
+        this.iterationStartNanos = currentNanos;
+        this.readyKeysTotal += readyKeysNumber;
+        if (readyKeysNumber > this.readyKeysMax) {
+            this.readyKeysMax = readyKeysNumber;
+        }
+        if (currentNanos < this.nextTickDeadlineNanos) {
+            return false;
+        }
+        this.lastLagNanos = currentNanos - this.nextTickDeadlineNanos;
+        this.lagStatistics.record(this.lastLagNanos);
+        this.nextTickDeadlineNanos = currentNanos + this.tickNanos;
+        return true;
+    }
+
+    public void onIterationEnd() {
+        this.iterationsStatistics.record(System.nanoTime() - this.iterationStartNanos);
+        this.iterationStartNanos = IDLE;
+    }
+
+    public void recordEventHandling(Class<?> handlerType, long durationNanos) {
+        DurationStatistics statistics = this.handlersStatistics.get(handlerType);
+        if (statistics == null) {
+            statistics = new DurationStatistics();
+            this.handlersStatistics.put(handlerType, statistics);
+        }
+        statistics.record(durationNanos);
+    }
+
+    private void watchLoopThread() {
+        long reportedIterationStartNanos = IDLE;
+        long checkPeriodMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(this.stallThresholdNanos) / 2);
+        while (this.loopThread.isAlive()) {
+            try {
+                Thread.sleep(checkPeriodMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long startNanos = this.iterationStartNanos;
+            if (startNanos == IDLE || startNanos == reportedIterationStartNanos) {
+                continue;
+            }
+            long stalledNanos = System.nanoTime() - startNanos;
+            if (stalledNanos < this.stallThresholdNanos) {
+                continue;
+            }
+            reportedIterationStartNanos = startNanos;
+            this.stallsNumber.incrementAndGet();
+            this.lastStallReport = this.describeStall(stalledNanos);
+            logger.warn(this.lastStallReport);
+        }
+    }
+
+    private String describeStall(long stalledNanos) {
+        StringBuilder report = new StringBuilder("Event loop iteration stalled for ")
+                .append(TimeUnit.NANOSECONDS.toMillis(stalledNanos)).append(" ms at:\n");
+        for (StackTraceElement element : this.loopThread.getStackTrace()) {
+            report.append("\tat ").append(element).append('\n');
+        }
+        return report.toString();
+    }
+
+    public void countInterestOpsUpdate() {
+        ++this.interestOpsUpdatesNumber;
+    }
+
+    @Override
+    public void appendMetrics(StringBuilder metrics) {
+        this.iterationsStatistics.appendMetrics(metrics, "loop_iteration");
+        this.lagStatistics.appendMetrics(metrics, "loop_lag");
+        long iterationsNumber = this.iterationsStatistics.getSamplesNumber();
+        metrics.append("loop_ready_keys_mean ").append(iterationsNumber == 0 ? 0 : readyKeysTotal / iterationsNumber)
+                .append('\n')
+                .append("loop_ready_keys_max ").append(this.readyKeysMax).append('\n')
+                .append("loop_interest_ops_updates ").append(this.interestOpsUpdatesNumber).append('\n');
+        for (var entry : this.handlersStatistics.entrySet()) {
+            entry.getValue().appendMetrics(metrics, "handle_event_" + entry.getKey().getSimpleName());
+        }
+        metrics.append("loop_stalls_count ").append(this.stallsNumber.get()).append('\n');
+        if (!this.lastStallReport.isEmpty()) {
+            metrics.append("# last stall\n").append(this.lastStallReport);
+        }
+    }
+}
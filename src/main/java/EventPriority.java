@@ -0,0 +1,8 @@
+/**
+ * Classes of ready events in the order the selector loop serves them.
+ */
+public enum EventPriority {
+    RELAY,
+    HANDSHAKE,
+    ACCEPT
+}
@@ -0,0 +1,28 @@
+public class HeavyHitter {
+    private final String key;
+    private final long count;
+    private final long error;
+
+    public HeavyHitter(String key, long count, long error) {
+        this.key = key;
+        this.count = count;
+        this.error = error;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return key + " " + count + " (+-" + error + ")";
+    }
+}
@@ -0,0 +1,55 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sliding-window heavy hitters: the window is split into slots, each slot owns its own
+ * {@link SpaceSavingSketch} and is recycled once it falls out of the window.
+ */
+public class HeavyHittersTracker {
+    private final SpaceSavingSketch[] slotsSketches;
+    private final long[] slotsEpochs;
+    private final long slotDurationMillis;
+
+    public HeavyHittersTracker(int sketchCapacity, int slotsNumber, long windowDurationMillis) {
+        this.slotsSketches = new SpaceSavingSketch[slotsNumber];
+        this.slotsEpochs = new long[slotsNumber];
+        for (int i = 0; i < slotsNumber; ++i) {
+            this.slotsSketches[i] = new SpaceSavingSketch(sketchCapacity);
+            this.slotsEpochs[i] = -1;
+        }
+        this.slotDurationMillis = Math.max(1, windowDurationMillis / slotsNumber);
+    }
+
+    public void add(String key, long weight, long currentTimeMillis) {
+        long epoch = currentTimeMillis / this.slotDurationMillis;
+        int slotIndex = (int) (epoch % this.slotsSketches.length);
+        if (this.slotsEpochs[slotIndex] != epoch) {
+            this.slotsSketches[slotIndex].clear();
+            this.slotsEpochs[slotIndex] = epoch;
+        }
+        this.slotsSketches[slotIndex].add(key, weight);
+    }
+
+    public List<HeavyHitter> getTopHitters(int limit, long currentTimeMillis) {
+        long currentEpoch = currentTimeMillis / this.slotDurationMillis;
+        Map<String, long[]> mergedCounters = new HashMap<>();
+        for (int i = 0; i < this.slotsSketches.length; ++i) {
+            if (currentEpoch - this.slotsEpochs[i] >= this.slotsSketches.length) {
+                continue;
+            }
+            for (HeavyHitter hitter : this.slotsSketches[i].getCounters()) {
+                long[] merged = mergedCounters.computeIfAbsent(hitter.getKey(), key -> new long[2]);
+                merged[0] += hitter.getCount();
+                merged[1] += hitter.getError();
+            }
+        }
+        List<HeavyHitter> topHitters = new ArrayList<>(mergedCounters.size());
+        for (var entry : mergedCounters.entrySet()) {
+            topHitters.add(new HeavyHitter(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+        }
+        topHitters.sort((first, second) -> Long.compare(second.getCount(), first.getCount()));
+        return topHitters.subList(0, Math.min(limit, topHitters.size()));
+    }
+}
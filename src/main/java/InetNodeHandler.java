@@ -1,3 +1,7 @@
 public interface InetNodeHandler {
     void handleEvent();
+
+    default EventPriority getEventPriority() {
+        return EventPriority.HANDSHAKE;
+    }
 }
@@ -0,0 +1,69 @@
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * Bindings to the optional {@code socks5native} JNI library built from {@code src/main/native}.
+ * Every caller must check {@link #isAvailable()} first and keep to the pure NIO path otherwise.
+ */
+public final class LinuxNativeSockets {
+    private static final Logger logger = LogManager.getLogger(LinuxNativeSockets.class);
+
+    private static final String NATIVE_LIBRARY_NAME = "socks5native";
+
+    public static final int TCP_INFO_RTT_MICROS = 0;
+    public static final int TCP_INFO_RTT_VARIANCE_MICROS = 1;
+    public static final int TCP_INFO_TOTAL_RETRANSMITS = 2;
+    public static final int TCP_INFO_CONGESTION_WINDOW = 3;
+    public static final int TCP_INFO_SEND_MSS = 4;
+    public static final int TCP_INFO_UNACKED_SEGMENTS = 5;
+    public static final int TCP_INFO_SEND_QUEUE_BYTES = 6;
+    public static final int TCP_INFO_RECEIVE_QUEUE_BYTES = 7;
+    public static final int TCP_INFO_FIELDS_NUMBER = 8;
+
+    private static final boolean available = loadNativeLibrary();
+
+    private LinuxNativeSockets() {
+    }
+
+    private static boolean loadNativeLibrary() {
+        if (!System.getProperty("os.name").toLowerCase().startsWith("linux")) {
+            return false;
+        }
+        try {
+            System.loadLibrary(NATIVE_LIBRARY_NAME);
+            return true;
+        } catch (UnsatisfiedLinkError | SecurityException e) {
+            logger.info("Native socket library is not available: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return available;
+    }
+
+    public static native int getChannelFileDescriptor(SelectableChannel channel);
+
+    /**
+     * Creates a non-blocking pipe of the given capacity.
+     * Returns the read end in the low 32 bits and the write end in the high 32 bits.
+     */
+    public static native long createPipe(int capacity) throws IOException;
+
+    public static native void closePipe(long pipe);
+
+    /**
+     * Moves up to {@code length} bytes with {@code splice(2)}.
+     * Returns the number of moved bytes, 0 on end of stream and -1 when the call would block.
+     */
+    public static native int splice(int fromFd, int toFd, int length) throws IOException;
+
+    /**
+     * Fills {@code fields}, indexed by the {@code TCP_INFO_*} constants, from {@code TCP_INFO} and the socket queue
+     * ioctls. Returns false when the descriptor is no longer a socket.
+     */
+    public static native boolean readTcpInfo(int fd, int[] fields);
+}
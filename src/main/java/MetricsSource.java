@@ -0,0 +1,3 @@
+public interface MetricsSource {
+    void appendMetrics(StringBuilder metrics);
+}
@@ -0,0 +1,69 @@
+/**
+ * Near end of a multiplexed stream: stands in for a {@link RemoteHostHandler} of a local SOCKS client.
+ */
+public class MuxClientStream extends MuxStream implements RemoteHostEndpoint {
+    private final ClientEndpoint associatingClientHandler;
+
+    public MuxClientStream(int streamId, MuxConnection connection, RelayBufferPool muxBufferPool,
+                           ClientEndpoint clientHandler) {
+        super(streamId, connection, muxBufferPool);
+        this.associatingClientHandler = clientHandler;
+    }
+
+    @Override
+    public RelayTransport getRequestsToHostBuffer() {
+        return outgoingBuffer;
+    }
+
+    @Override
+    public RelayTransport getResponsesFromHostBuffer() {
+        return incomingBuffer;
+    }
+
+    @Override
+    public void informAboutClientDataOccurrence() {
+        this.connection.scheduleOutput(this);
+    }
+
+    @Override
+    public void informAboutResponsesConsumption() {
+        this.confirmIncomingDataConsumption();
+    }
+
+    @Override
+    public boolean isActive() {
+        return isOpen;
+    }
+
+    @Override
+    public void close() {
+        this.finishStream(true);
+    }
+
+    @Override
+    public void acceptOpenResult(byte responseType) {
+        if (!Socks5MessagesExplorer.isResponseTypeSucceeded(responseType)) {
+            this.finishStream(false);
+        }
+        this.associatingClientHandler.informAboutConnectionResult(responseType);
+    }
+
+    @Override
+    public void acceptClose() {
+        this.finishStream(false);
+        if (!this.incomingBuffer.hasPendingData() && this.associatingClientHandler.isActive()) {
+            this.associatingClientHandler.close();
+        }
+    }
+
+    @Override
+    protected void onOutgoingDataSent() {
+        this.associatingClientHandler.informAboutRequestsConsumption();
+    }
+
+    @Override
+    protected void onIncomingDataReceived(int bytesNumber) {
+        this.associatingClientHandler.recordRelayedBytes(bytesNumber);
+        this.associatingClientHandler.informAboutHostDataOccurrence();
+    }
+}
@@ -0,0 +1,339 @@
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Long-lived TCP connection between two instances of this proxy carrying many {@link MuxStream}s.
+ * The initiating side opens streams with an OPEN frame and may send DATA right after it,
+ * so a new stream costs no extra round trip. Frame layout is described in {@link MuxFrameType}.
+ */
+public class MuxConnection implements InetNodeHandler, Closeable {
+    private static final Logger logger = LogManager.getLogger(MuxConnection.class);
+
+    public static final int FRAME_HEADER_SIZE = 9;
+    public static final int MAX_FRAME_PAYLOAD_SIZE = 16384;
+
+    private static final int IO_BUFFERS_CAPACITY = 131072;
+    private static final int CONTROL_FRAMES_RESERVE = 1024;
+    private static final int OPEN_FRAME_PAYLOAD_SIZE = 6;
+    private static final int OPEN_RESULT_FRAME_PAYLOAD_SIZE = 1;
+    private static final int IPv4_ADDRESS_SIZE = 4;
+
+    private final SocketChannel muxSocketChannel;
+    private final SelectionKey muxSelectionKey;
+
+    private final String peerKey;
+
+    private final Socks5ProxyServer associatingProxyServer;
+
+    private final ByteBuffer inputFrames = ByteBuffer.allocateDirect(IO_BUFFERS_CAPACITY);
+    private final ByteBuffer outputFrames = ByteBuffer.allocateDirect(IO_BUFFERS_CAPACITY);
+    private final Deque<ByteBuffer> overflowControlFrames = new ArrayDeque<>();
+
+    private final Map<Integer, MuxStream> streamsByIds = new HashMap<>();
+    private final Deque<MuxStream> streamsReadyForOutput = new ArrayDeque<>();
+
+    private int nextStreamId = 1;
+
+    private boolean isConnected;
+    private boolean isActive = true;
+
+    public MuxConnection(InetSocketAddress peerProxyAddress, Socks5ProxyServer proxyServer) throws IOException {
+        this.associatingProxyServer = proxyServer;
+        this.muxSocketChannel = SocketChannel.open();
+        this.peerKey = peerProxyAddress.getHostString();
+        NonBlockingChannelServiceman.setNonBlock(muxSocketChannel);
+        logger.info("Start connecting to peer proxy " + peerProxyAddress);
+        this.muxSocketChannel.connect(peerProxyAddress);
+        this.muxSelectionKey = this.muxSocketChannel.register(
+                proxyServer.getEventsSelector(), SelectionKey.OP_CONNECT, this);
+    }
+
+    public MuxConnection(SelectionKey muxServerSelectionKey, Socks5ProxyServer proxyServer) throws IOException {
+        this.associatingProxyServer = proxyServer;
+        this.muxSocketChannel = ((ServerSocketChannel) muxServerSelectionKey.channel()).accept();
+        this.peerKey = this.muxSocketChannel.socket().getInetAddress().getHostAddress();
+        NonBlockingChannelServiceman.setNonBlock(muxSocketChannel);
+        this.muxSelectionKey = this.muxSocketChannel.register(
+                muxServerSelectionKey.selector(), SelectionKey.OP_READ, this);
+        this.isConnected = true;
+        logger.info("Peer proxy connected from " + this.muxSocketChannel.getRemoteAddress());
+    }
+
+    public static void putFrameHeader(ByteBuffer frames, MuxFrameType type, int streamId, int payloadSize) {
+        frames.put(type.getValue());
+        frames.putInt(streamId);
+        frames.putInt(payloadSize);
+    }
+
+    public MuxClientStream openStream(ClientEndpoint clientHandler, InetAddress hostAddress, int hostPort) {
+        int streamId = this.nextStreamId;
+        this.nextStreamId += 2;
+        MuxClientStream stream = new MuxClientStream(streamId, this,
+                this.associatingProxyServer.getMuxBufferPool(), clientHandler);
+        this.streamsByIds.put(streamId, stream);
+        ByteBuffer frame = this.getControlFrameBuffer(FRAME_HEADER_SIZE + OPEN_FRAME_PAYLOAD_SIZE);
+        putFrameHeader(frame, MuxFrameType.OPEN, streamId, OPEN_FRAME_PAYLOAD_SIZE);
+        frame.put(hostAddress.getAddress());
+        frame.putShort((short) hostPort);
+        this.requestOutput();
+        return stream;
+    }
+
+    public void putOpenResultFrame(int streamId, byte responseType) {
+        ByteBuffer frame = this.getControlFrameBuffer(FRAME_HEADER_SIZE + OPEN_RESULT_FRAME_PAYLOAD_SIZE);
+        putFrameHeader(frame, MuxFrameType.OPEN_RESULT, streamId, OPEN_RESULT_FRAME_PAYLOAD_SIZE);
+        frame.put(responseType);
+        this.requestOutput();
+    }
+
+    public void putWindowUpdateFrame(int streamId, int increment) {
+        ByteBuffer frame = this.getControlFrameBuffer(FRAME_HEADER_SIZE + Integer.BYTES);
+        putFrameHeader(frame, MuxFrameType.WINDOW_UPDATE, streamId, Integer.BYTES);
+        frame.putInt(increment);
+        this.requestOutput();
+    }
+
+    public void putCloseFrame(int streamId) {
+        ByteBuffer frame = this.getControlFrameBuffer(FRAME_HEADER_SIZE);
+        putFrameHeader(frame, MuxFrameType.CLOSE, streamId, 0);
+        this.requestOutput();
+    }
+
+    private ByteBuffer getControlFrameBuffer(int frameSize) {
+        if (this.overflowControlFrames.isEmpty() && this.outputFrames.remaining() >= frameSize) {
+            return this.outputFrames;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(frameSize);
+        this.overflowControlFrames.addLast(frame);
+        return frame;
+    }
+
+    public void scheduleOutput(MuxStream stream) {
+        if (stream.isScheduledForOutput() || !stream.hasDataToSend()) {
+            return;
+        }
+        stream.setScheduledForOutput(true);
+        this.streamsReadyForOutput.addLast(stream);
+        this.requestOutput();
+    }
+
+    public void removeStream(int streamId) {
+        this.streamsByIds.remove(streamId);
+    }
+
+    public String getPeerKey() {
+        return peerKey;
+    }
+
+    public boolean isConnected() {
+        return isConnected;
+    }
+
+    public boolean isActive() {
+        return isActive;
+    }
+
+    public int getStreamsNumber() {
+        return streamsByIds.size();
+    }
+
+    private void requestOutput() {
+        if (this.isConnected && this.muxSelectionKey.isValid()) {
+            this.muxSelectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void finishConnectToPeerProxy() {
+        try {
+            this.muxSocketChannel.finishConnect();
+            this.isConnected = true;
+            logger.info("Multiplexed connection to peer proxy has been established");
+            this.muxSelectionKey.interestOps(SelectionKey.OP_READ);
+            this.requestOutput();
+        } catch (IOException e) {
+            this.handleException(e);
+        }
+    }
+
+    private void readFrames() {
+        try {
+            int readBytesNumber = this.muxSocketChannel.read(this.inputFrames);
+            if (readBytesNumber < 0) {
+                logger.info("Peer proxy closed the multiplexed connection");
+                this.close();
+                return;
+            }
+            this.inputFrames.flip();
+            while (this.isActive && this.inputFrames.remaining() >= FRAME_HEADER_SIZE) {
+                int frameStart = this.inputFrames.position();
+                int payloadSize = this.inputFrames.getInt(frameStart + 1 + Integer.BYTES);
+                if (payloadSize < 0 || payloadSize > MAX_FRAME_PAYLOAD_SIZE) {
+                    throw new IOException("Malformed multiplexed frame of " + payloadSize + " bytes");
+                }
+                if (this.inputFrames.remaining() < FRAME_HEADER_SIZE + payloadSize) {
+                    break;
+                }
+                MuxFrameType type = MuxFrameType.getTypeByCode(this.inputFrames.get());
+                int streamId = this.inputFrames.getInt();
+                this.inputFrames.getInt();
+                this.dispatchFrame(type, streamId, payloadSize);
+                this.inputFrames.position(frameStart + FRAME_HEADER_SIZE + payloadSize);
+            }
+            this.inputFrames.compact();
+        } catch (IOException e) {
+            this.handleException(e);
+        }
+    }
+
+    private void dispatchFrame(MuxFrameType type, int streamId, int payloadSize) throws IOException {
+        if (type == null) {
+            throw new IOException("Unknown multiplexed frame type");
+        }
+        if (!isPayloadSizeValid(type, payloadSize)) {
+            throw new IOException("Malformed multiplexed " + type + " frame of " + payloadSize + " bytes");
+        }
+        if (type == MuxFrameType.OPEN) {
+            this.acceptOpenFrame(streamId);
+            return;
+        }
+        MuxStream stream = this.streamsByIds.get(streamId);
+        if (stream == null) {
+            return;
+        }
+        switch (type) {
+            case OPEN_RESULT -> stream.acceptOpenResult(this.inputFrames.get());
+            case DATA -> {
+                if (!stream.acceptDataFrame(this.inputFrames, payloadSize)) {
+                    throw new IOException("Peer proxy overran the window of stream " + streamId);
+                }
+            }
+            case WINDOW_UPDATE -> {
+                if (!stream.acceptWindowUpdate(this.inputFrames.getInt())) {
+                    throw new IOException("Peer proxy sent an invalid window update for stream " + streamId);
+                }
+            }
+            case CLOSE -> stream.acceptClose();
+        }
+    }
+
+    /**
+     * DATA payload is bounded by the header check, every other frame type has a payload of exactly one size.
+     */
+    private static boolean isPayloadSizeValid(MuxFrameType type, int payloadSize) {
+        return switch (type) {
+            case OPEN -> payloadSize == OPEN_FRAME_PAYLOAD_SIZE;
+            case OPEN_RESULT -> payloadSize == OPEN_RESULT_FRAME_PAYLOAD_SIZE;
+            case DATA -> true;
+            case WINDOW_UPDATE -> payloadSize == Integer.BYTES;
+            case CLOSE -> payloadSize == 0;
+        };
+    }
+
+    private void acceptOpenFrame(int streamId) throws IOException {
+        if (this.streamsByIds.containsKey(streamId)) {
+            throw new IOException("Peer proxy opened stream " + streamId + " twice");
+        }
+        byte[] hostAddressBytes = new byte[IPv4_ADDRESS_SIZE];
+        this.inputFrames.get(hostAddressBytes);
+        int hostPort = Short.toUnsignedInt(this.inputFrames.getShort());
+        MuxRemoteStream stream = new MuxRemoteStream(streamId, this, this.associatingProxyServer.getMuxBufferPool());
+        this.streamsByIds.put(streamId, stream);
+        stream.connectToRemoteHost(InetAddress.getByAddress(hostAddressBytes), hostPort, this.associatingProxyServer);
+    }
+
+    private void writeFrames() {
+        try {
+            this.fillOutputFrames();
+            this.outputFrames.flip();
+            this.muxSocketChannel.write(this.outputFrames);
+            this.outputFrames.compact();
+            if (this.outputFrames.position() == 0 && this.overflowControlFrames.isEmpty()
+                    && this.streamsReadyForOutput.isEmpty()) {
+                this.muxSelectionKey.interestOps(SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            this.handleException(e);
+        }
+    }
+
+    private void fillOutputFrames() {
+        while (!this.overflowControlFrames.isEmpty()
+                && this.outputFrames.remaining() >= this.overflowControlFrames.peekFirst().position()) {
+            ByteBuffer frame = this.overflowControlFrames.pollFirst();
+            frame.flip();
+            this.outputFrames.put(frame);
+        }
+        if (!this.overflowControlFrames.isEmpty()) {
+            return;
+        }
+        while (!this.streamsReadyForOutput.isEmpty()) {
+            int maxPayloadSize = this.outputFrames.remaining() - FRAME_HEADER_SIZE - CONTROL_FRAMES_RESERVE;
+            if (maxPayloadSize <= 0) {
+                return;
+            }
+            MuxStream stream = this.streamsReadyForOutput.pollFirst();
+            stream.setScheduledForOutput(false);
+            stream.putDataFrame(this.outputFrames, maxPayloadSize);
+            this.scheduleOutput(stream);
+        }
+    }
+
+    private void handleException(Exception exception) {
+        logger.error(exception.getMessage());
+        this.close();
+    }
+
+    @Override
+    public EventPriority getEventPriority() {
+        return EventPriority.RELAY;
+    }
+
+    @Override
+    public void handleEvent() {
+        if (this.muxSelectionKey.isConnectable()) {
+            this.finishConnectToPeerProxy();
+            return;
+        }
+        if (this.muxSelectionKey.isReadable()) {
+            this.readFrames();
+        }
+        if (this.isActive && this.muxSelectionKey.isValid() && this.muxSelectionKey.isWritable()) {
+            this.writeFrames();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!this.isActive) {
+            return;
+        }
+        this.isActive = false;
+        this.isConnected = false;
+        this.muxSelectionKey.cancel();
+        try {
+            this.muxSocketChannel.close();
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+        for (MuxStream stream : new ArrayList<>(this.streamsByIds.values())) {
+            stream.acceptClose();
+        }
+        this.streamsByIds.clear();
+        this.streamsReadyForOutput.clear();
+        logger.info("Multiplexed connection was closed");
+    }
+}
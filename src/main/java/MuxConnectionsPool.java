@@ -0,0 +1,72 @@
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed set of {@link MuxConnection}s to the upstream proxy. New tunnels are spread over them round-robin,
+ * connections that went down are reopened on the loop tick.
+ */
+public class MuxConnectionsPool implements MetricsSource {
+    private static final Logger logger = LogManager.getLogger(MuxConnectionsPool.class);
+
+    private final InetSocketAddress upstreamProxyAddress;
+    private final Socks5ProxyServer associatingProxyServer;
+
+    private final List<MuxConnection> connections = new ArrayList<>();
+
+    private int nextConnectionIndex;
+
+    public MuxConnectionsPool(InetSocketAddress upstreamProxyAddress, int connectionsNumber,
+                              Socks5ProxyServer proxyServer) {
+        this.upstreamProxyAddress = upstreamProxyAddress;
+        this.associatingProxyServer = proxyServer;
+        for (int i = 0; i < connectionsNumber; ++i) {
+            this.connections.add(null);
+        }
+        this.reopenLostConnections();
+    }
+
+    public MuxClientStream openStream(ClientEndpoint clientHandler, InetAddress hostAddress, int hostPort) {
+        for (int i = 0; i < this.connections.size(); ++i) {
+            MuxConnection connection = this.connections.get(this.nextConnectionIndex);
+            this.nextConnectionIndex = (this.nextConnectionIndex + 1) % this.connections.size();
+            if (connection != null && connection.isConnected()) {
+                return connection.openStream(clientHandler, hostAddress, hostPort);
+            }
+        }
+        return null;
+    }
+
+    public void reopenLostConnections() {
+        for (int i = 0; i < this.connections.size(); ++i) {
+            MuxConnection connection = this.connections.get(i);
+            if (connection != null && connection.isActive()) {
+                continue;
+            }
+            try {
+                this.connections.set(i, new MuxConnection(this.upstreamProxyAddress, this.associatingProxyServer));
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void appendMetrics(StringBuilder metrics) {
+        int connectedNumber = 0;
+        int streamsNumber = 0;
+        for (MuxConnection connection : this.connections) {
+            if (connection != null && connection.isConnected()) {
+                ++connectedNumber;
+                streamsNumber += connection.getStreamsNumber();
+            }
+        }
+        metrics.append("mux_connections_connected ").append(connectedNumber).append('\n')
+                .append("mux_streams_open ").append(streamsNumber).append('\n');
+    }
+}
@@ -0,0 +1,41 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Frames of the proxy-to-proxy multiplexing protocol. Every frame starts with a header of
+ * type (1 byte), stream id (4 bytes) and payload length (4 bytes).
+ * <ul>
+ *     <li>OPEN: IPv4 address (4 bytes) and port (2 bytes) to connect the new stream to</li>
+ *     <li>OPEN_RESULT: SOCKS5 reply code (1 byte) of the connect made by the far proxy</li>
+ *     <li>DATA: relayed bytes, never more than the receiver's window allows</li>
+ *     <li>WINDOW_UPDATE: number of bytes (4 bytes) the receiver has consumed and the sender may send again</li>
+ *     <li>CLOSE: empty, the stream is finished</li>
+ * </ul>
+ */
+public enum MuxFrameType {
+    OPEN((byte) 0x01),
+    OPEN_RESULT((byte) 0x02),
+    DATA((byte) 0x03),
+    WINDOW_UPDATE((byte) 0x04),
+    CLOSE((byte) 0x05);
+
+    private final byte value;
+
+    private static final Map<Byte, MuxFrameType> map = new HashMap<>() {{
+        for (var type : MuxFrameType.values()) {
+            put(type.value, type);
+        }
+    }};
+
+    public static MuxFrameType getTypeByCode(byte code) {
+        return map.get(code);
+    }
+
+    MuxFrameType(byte value) {
+        this.value = value;
+    }
+
+    public byte getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,36 @@
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+
+public class MuxListenerHandler implements InetNodeHandler {
+    private static final Logger logger = LogManager.getLogger(MuxListenerHandler.class);
+
+    private final ServerSocketChannel muxServerSocketChannel;
+    private final SelectionKey muxServerSelectionKey;
+
+    private final Socks5ProxyServer associatingProxyServer;
+
+    public MuxListenerHandler(Selector selector, String address, int port, Socks5ProxyServer proxyServer)
+            throws IOException {
+        this.associatingProxyServer = proxyServer;
+        this.muxServerSocketChannel = ServerSocketChannel.open();
+        NonBlockingChannelServiceman.setNonBlock(muxServerSocketChannel);
+        this.muxServerSocketChannel.bind(new InetSocketAddress(address, port));
+        this.muxServerSelectionKey = this.muxServerSocketChannel.register(selector, SelectionKey.OP_ACCEPT, this);
+        logger.info("Listening for peer proxies, IPv4: " + address + ". Port: " + port);
+    }
+
+    @Override
+    public void handleEvent() {
+        try {
+            new MuxConnection(this.muxServerSelectionKey, this.associatingProxyServer);
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * Far end of a multiplexed stream: terminates into a regular {@link RemoteHostHandler} connect
+ * and plays the client role for it.
+ */
+public class MuxRemoteStream extends MuxStream implements ClientEndpoint {
+    private static final Logger logger = LogManager.getLogger(MuxRemoteStream.class);
+
+    private RemoteHostHandler remoteHostHandler;
+
+    private TrafficHeavyHitters heavyHitters;
+    private String destinationKey;
+
+    public MuxRemoteStream(int streamId, MuxConnection connection, RelayBufferPool muxBufferPool) {
+        super(streamId, connection, muxBufferPool);
+    }
+
+    public void connectToRemoteHost(InetAddress hostAddress, int hostPort, Socks5ProxyServer proxyServer) {
+        this.heavyHitters = proxyServer.getHeavyHitters();
+        this.destinationKey = DestinationCircuitBreaker.getDestinationKey(hostAddress, hostPort);
+        this.heavyHitters.recordConnection(this.connection.getPeerKey(), this.destinationKey);
+        byte circuitReplyCode = proxyServer.getCircuitBreaker().checkConnectAllowed(
+                this.destinationKey, System.currentTimeMillis());
+        if (!Socks5MessagesExplorer.isResponseTypeSucceeded(circuitReplyCode)) {
+            this.informAboutConnectionResult(circuitReplyCode);
+            return;
+        }
+        try {
+            this.remoteHostHandler = new RemoteHostHandler(this, hostAddress, hostPort,
+                    this.incomingBuffer, this.outgoingBuffer, proxyServer);
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+            this.informAboutConnectionResult(RemoteHostHandler.getConnectFailureReplyCode(e));
+        }
+    }
+
+    @Override
+    public void informAboutConnectionResult(byte responseType) {
+        this.connection.putOpenResultFrame(this.streamId, responseType);
+        if (!Socks5MessagesExplorer.isResponseTypeSucceeded(responseType)) {
+            this.finishStream(false);
+            this.releaseBuffers();
+        }
+    }
+
+    @Override
+    public void informAboutHostDataOccurrence() {
+        this.connection.scheduleOutput(this);
+    }
+
+    @Override
+    public void informAboutRequestsConsumption() {
+        this.confirmIncomingDataConsumption();
+    }
+
+    @Override
+    public void recordRelayedBytes(int bytesNumber) {
+        this.heavyHitters.recordRelayedBytes(this.connection.getPeerKey(), this.destinationKey, bytesNumber);
+    }
+
+    @Override
+    public boolean isActive() {
+        return isOpen;
+    }
+
+    @Override
+    public void close() {
+        this.finishStream(true);
+        this.releaseBuffers();
+    }
+
+    @Override
+    public void acceptOpenResult(byte responseType) {
+        logger.warn("Unexpected OPEN_RESULT frame for stream " + this.streamId);
+    }
+
+    @Override
+    public void acceptClose() {
+        this.finishStream(false);
+        if (this.remoteHostHandler != null) {
+            this.remoteHostHandler.close();
+        }
+        this.releaseBuffers();
+    }
+
+    @Override
+    protected void onOutgoingDataSent() {
+        this.remoteHostHandler.informAboutResponsesConsumption();
+        if (!this.outgoingBuffer.hasPendingData() && !this.remoteHostHandler.isActive()) {
+            this.close();
+        }
+    }
+
+    @Override
+    protected void onIncomingDataReceived(int bytesNumber) {
+        this.recordRelayedBytes(bytesNumber);
+        this.remoteHostHandler.informAboutClientDataOccurrence();
+    }
+
+    private void releaseBuffers() {
+        this.incomingBuffer.release();
+        this.outgoingBuffer.release();
+    }
+}
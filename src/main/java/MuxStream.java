@@ -0,0 +1,113 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Logical stream of a {@link MuxConnection}. Each direction is limited by a flow-control window equal to
+ * the capacity of the receiving buffer, so a DATA frame always fits into the receiver's buffer and one slow
+ * stream never blocks the others sharing the connection.
+ */
+public abstract class MuxStream {
+    public static final int STREAM_WINDOW = 65536;
+
+    private static final int WINDOW_UPDATE_THRESHOLD = STREAM_WINDOW / 4;
+
+    protected final int streamId;
+    protected final MuxConnection connection;
+
+    protected final RelayBuffer outgoingBuffer;
+    protected final RelayBuffer incomingBuffer;
+
+    private int sendWindow = STREAM_WINDOW;
+    private int unconfirmedIncomingBytesNumber;
+
+    private boolean isScheduledForOutput;
+
+    protected boolean isOpen = true;
+
+    protected MuxStream(int streamId, MuxConnection connection, RelayBufferPool muxBufferPool) {
+        this.streamId = streamId;
+        this.connection = connection;
+        this.outgoingBuffer = new RelayBuffer(muxBufferPool);
+        this.incomingBuffer = new RelayBuffer(muxBufferPool);
+    }
+
+    public int getStreamId() {
+        return streamId;
+    }
+
+    public boolean hasDataToSend() {
+        return this.isOpen && this.sendWindow > 0 && this.outgoingBuffer.hasPendingData();
+    }
+
+    public boolean isScheduledForOutput() {
+        return isScheduledForOutput;
+    }
+
+    public void setScheduledForOutput(boolean isScheduledForOutput) {
+        this.isScheduledForOutput = isScheduledForOutput;
+    }
+
+    public int putDataFrame(ByteBuffer frames, int maxPayloadSize) {
+        int payloadSize = Math.min(Math.min(maxPayloadSize, MuxConnection.MAX_FRAME_PAYLOAD_SIZE),
+                Math.min(this.sendWindow, this.outgoingBuffer.getPendingBytesNumber()));
+        if (payloadSize <= 0) {
+            return 0;
+        }
+        MuxConnection.putFrameHeader(frames, MuxFrameType.DATA, this.streamId, payloadSize);
+        this.outgoingBuffer.writeTo(frames, payloadSize);
+        this.sendWindow -= payloadSize;
+        this.onOutgoingDataSent();
+        return payloadSize;
+    }
+
+    public boolean acceptDataFrame(ByteBuffer frames, int payloadSize) {
+        if (payloadSize > STREAM_WINDOW - this.incomingBuffer.getPendingBytesNumber()) {
+            return false;
+        }
+        this.incomingBuffer.readFrom(frames, payloadSize);
+        this.unconfirmedIncomingBytesNumber += payloadSize;
+        this.onIncomingDataReceived(payloadSize);
+        return true;
+    }
+
+    /**
+     * Returns false when the increment would open the window beyond its initial size.
+     */
+    public boolean acceptWindowUpdate(int increment) {
+        if (increment <= 0 || increment > STREAM_WINDOW - this.sendWindow) {
+            return false;
+        }
+        this.sendWindow += increment;
+        this.connection.scheduleOutput(this);
+        return true;
+    }
+
+    protected void confirmIncomingDataConsumption() {
+        int consumedBytesNumber = this.unconfirmedIncomingBytesNumber - this.incomingBuffer.getPendingBytesNumber();
+        if (consumedBytesNumber <= 0 || !this.isOpen) {
+            return;
+        }
+        if (consumedBytesNumber >= WINDOW_UPDATE_THRESHOLD || !this.incomingBuffer.hasPendingData()) {
+            this.connection.putWindowUpdateFrame(this.streamId, consumedBytesNumber);
+            this.unconfirmedIncomingBytesNumber -= consumedBytesNumber;
+        }
+    }
+
+    protected void finishStream(boolean isPeerToBeNotified) {
+        if (!this.isOpen) {
+            return;
+        }
+        this.isOpen = false;
+        if (isPeerToBeNotified) {
+            this.connection.putCloseFrame(this.streamId);
+        }
+        this.connection.removeStream(this.streamId);
+    }
+
+    public abstract void acceptOpenResult(byte responseType);
+
+    public abstract void acceptClose();
+
+    protected abstract void onOutgoingDataSent();
+
+    protected abstract void onIncomingDataReceived(int bytesNumber);
+}
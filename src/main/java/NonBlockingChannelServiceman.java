@@ -1,5 +1,7 @@
 import java.io.IOException;
+import java.net.StandardSocketOptions;
 import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
 import lombok.experimental.UtilityClass;
 
 @UtilityClass
@@ -7,4 +9,12 @@ public class NonBlockingChannelServiceman {
     public static void setNonBlock(SelectableChannel channel) throws IOException {
         channel.configureBlocking(false);
     }
+
+    /**
+     * Relayed data is written as soon as it is read, so there is nothing for Nagle's algorithm to coalesce, it would
+     * only hold back the tail of every interactive exchange.
+     */
+    public static void setNoDelay(SocketChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
 }
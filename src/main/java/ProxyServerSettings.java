@@ -0,0 +1,32 @@
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.net.InetSocketAddress;
+
+@Builder
+@Getter
+@ToString
+public class ProxyServerSettings {
+
+    private final int proxyServerPort;
+    private final int adminConsolePort;
+    private final long heavyHittersWindowMillis;
+    private final boolean spliceRelayRequested;
+    private final long stallThresholdMillis;
+    private final int muxListenPort;
+    private final InetSocketAddress muxUpstreamProxyAddress;
+    private final int muxConnectionsNumber;
+    private final String captureFile;
+    private final boolean captureRedacted;
+    private final String dnsCacheFile;
+    private final long dnsSnapshotIntervalMillis;
+    private final long connectTimeoutMillis;
+    private final int relayQuantumBytes;
+    private final long busyPollMicros;
+    private final boolean optimisticConnect;
+    private final long overloadLagMillis;
+    private final long relayMemoryLimitBytes;
+    private final long tcpInfoIntervalMillis;
+    private final boolean allocationTracking;
+}
@@ -12,7 +12,7 @@ public class ProxyServerStarter {
             cmdArgsParser.parseArguments(args);
 
             Socks5ProxyServer proxyServer = new Socks5ProxyServer();
-            proxyServer.start(cmdArgsParser.getProxyServerPort());
+            proxyServer.start(cmdArgsParser.getProxyServerSettings());
         } catch (Exception e) {
             logger.error(e.getMessage());
         }
@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * One direction of a tunnel kept as a chain of segments borrowed from the {@link RelayBufferPool} while data is
+ * pending and flushed with one gathering write.
+ * The chain length is capped by a size class that grows while reads stop on a full buffer and shrinks back once
+ * the buffer has not been filled for a while or the pool is over its memory limit.
+ * Between calls every segment is in draining mode.
+ */
+public class RelayBuffer implements RelayTransport {
+    static final long SHRINK_AFTER_MILLIS = 1000;
+
+    private final RelayBufferPool pool;
+
+    private final int maxSegmentsNumber;
+
+    private ByteBuffer[] segments;
+
+    private int segmentsNumber;
+    private int segmentsLimit = 1;
+
+    private long lastFilledMillis;
+
+    public RelayBuffer(RelayBufferPool pool) {
+        this(pool, 1);
+    }
+
+    public RelayBuffer(RelayBufferPool pool, int maxSegmentsNumber) {
+        this.pool = pool;
+        this.maxSegmentsNumber = maxSegmentsNumber;
+        this.segments = new ByteBuffer[1];
+    }
+
+    @Override
+    public int readFrom(SocketChannel channel) throws IOException {
+        ByteBuffer tail = this.getFillableTail();
+        int tailPosition = tail.position();
+        tail.position(tail.limit()).limit(tail.capacity());
+        int readBytesNumber;
+        try {
+            readBytesNumber = channel.read(tail);
+        } finally {
+            tail.limit(tail.position()).position(tailPosition);
+            this.pool.countSocketRead();
+            this.releaseEmptyTail();
+        }
+        return readBytesNumber;
+    }
+
+    @Override
+    public int writeTo(SocketChannel channel) throws IOException {
+        if (this.segmentsNumber == 0) {
+            return 0;
+        }
+        long writeBytesNumber;
+        if (this.segmentsNumber == 1) {
+            writeBytesNumber = channel.write(this.segments[0]);
+        } else {
+            writeBytesNumber = channel.write(this.segments, 0, this.segmentsNumber);
+        }
+        this.pool.countSocketWrite(this.segmentsNumber > 1);
+        this.releaseDrainedHead();
+        return (int) writeBytesNumber;
+    }
+
+    public int readFrom(ByteBuffer source, int bytesNumber) {
+        int movedBytesNumber = 0;
+        while (movedBytesNumber < bytesNumber && !this.isFull()) {
+            ByteBuffer tail = this.getFillableTail();
+            int tailPosition = tail.position();
+            int partSize = Math.min(bytesNumber - movedBytesNumber, tail.capacity() - tail.limit());
+            int sourceLimit = source.limit();
+            source.limit(source.position() + partSize);
+            tail.position(tail.limit()).limit(tail.limit() + partSize);
+            tail.put(source);
+            tail.position(tailPosition);
+            source.limit(sourceLimit);
+            movedBytesNumber += partSize;
+        }
+        return movedBytesNumber;
+    }
+
+    public int writeTo(ByteBuffer target, int bytesNumber) {
+        int movedBytesNumber = 0;
+        while (this.segmentsNumber > 0 && movedBytesNumber < bytesNumber && target.hasRemaining()) {
+            ByteBuffer head = this.segments[0];
+            int partSize = Math.min(bytesNumber - movedBytesNumber, Math.min(head.remaining(), target.remaining()));
+            int headLimit = head.limit();
+            head.limit(head.position() + partSize);
+            target.put(head);
+            head.limit(headLimit);
+            movedBytesNumber += partSize;
+            this.releaseDrainedHead();
+        }
+        return movedBytesNumber;
+    }
+
+    /**
+     * Returns the last segment with free space at its end, compacting a lone segment or chaining a new one
+     * when needed. Must not be called on a full buffer.
+     */
+    private ByteBuffer getFillableTail() {
+        if (this.segmentsNumber == 0) {
+            return this.appendSegment();
+        }
+        ByteBuffer tail = this.segments[this.segmentsNumber - 1];
+        if (tail.limit() < tail.capacity()) {
+            return tail;
+        }
+        if (this.segmentsNumber == 1 && tail.position() > 0) {
+            tail.compact().flip();
+            return tail;
+        }
+        return this.appendSegment();
+    }
+
+    private ByteBuffer appendSegment() {
+        ByteBuffer segment = this.pool.acquire();
+        segment.limit(0);
+        this.segments[this.segmentsNumber++] = segment;
+        return segment;
+    }
+
+    private void releaseEmptyTail() {
+        ByteBuffer tail = this.segments[this.segmentsNumber - 1];
+        if (!tail.hasRemaining()) {
+            this.pool.release(tail);
+            this.segments[--this.segmentsNumber] = null;
+        }
+    }
+
+    private void releaseDrainedHead() {
+        int drainedSegmentsNumber = 0;
+        while (drainedSegmentsNumber < this.segmentsNumber && !this.segments[drainedSegmentsNumber].hasRemaining()) {
+            this.pool.release(this.segments[drainedSegmentsNumber]);
+            ++drainedSegmentsNumber;
+        }
+        if (drainedSegmentsNumber == 0) {
+            return;
+        }
+        System.arraycopy(this.segments, drainedSegmentsNumber, this.segments, 0,
+                this.segmentsNumber - drainedSegmentsNumber);
+        for (int i = this.segmentsNumber - drainedSegmentsNumber; i < this.segmentsNumber; ++i) {
+            this.segments[i] = null;
+        }
+        this.segmentsNumber -= drainedSegmentsNumber;
+    }
+
+    public int getPendingBytesNumber() {
+        int pendingBytesNumber = 0;
+        for (int i = 0; i < this.segmentsNumber; ++i) {
+            pendingBytesNumber += this.segments[i].remaining();
+        }
+        return pendingBytesNumber;
+    }
+
+    @Override
+    public boolean hasPendingData() {
+        return this.segmentsNumber != 0;
+    }
+
+    @Override
+    public boolean isFull() {
+        if (this.segmentsNumber < this.segmentsLimit) {
+            return false;
+        }
+        ByteBuffer tail = this.segments[this.segmentsNumber - 1];
+        return tail.limit() == tail.capacity() && (this.segmentsNumber > 1 || tail.position() == 0);
+    }
+
+    @Override
+    public void adaptCapacity(RelayStopReason stopReason) {
+        this.adaptCapacity(stopReason, System.currentTimeMillis());
+    }
+
+    void adaptCapacity(RelayStopReason stopReason, long currentTimeMillis) {
+        if (stopReason == RelayStopReason.BLOCKED) {
+            this.lastFilledMillis = currentTimeMillis;
+            if (this.segmentsLimit < this.maxSegmentsNumber && this.pool.isGrowthAllowed()) {
+                this.segmentsLimit = Math.min(2 * this.segmentsLimit, this.maxSegmentsNumber);
+                if (this.segments.length < this.segmentsLimit) {
+                    this.segments = Arrays.copyOf(this.segments, this.segmentsLimit);
+                }
+                this.pool.countSizeClassChange(true);
+            }
+            return;
+        }
+        if (this.segmentsLimit == 1 || stopReason != RelayStopReason.DRAINED) {
+            return;
+        }
+        if (currentTimeMillis - this.lastFilledMillis >= SHRINK_AFTER_MILLIS || !this.pool.isGrowthAllowed()) {
+            this.lastFilledMillis = currentTimeMillis;
+            this.segmentsLimit /= 2;
+            this.pool.countSizeClassChange(false);
+        }
+    }
+
+    @Override
+    public void release() {
+        for (int i = 0; i < this.segmentsNumber; ++i) {
+            this.pool.release(this.segments[i]);
+            this.segments[i] = null;
+        }
+        this.segmentsNumber = 0;
+    }
+}
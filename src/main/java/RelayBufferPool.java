@@ -0,0 +1,93 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Direct relay buffers shared by all tunnels of one selector. Tunnels borrow a buffer only while
+ * relayed data is in flight, so an idle tunnel holds no buffer memory at all. Past the memory limit
+ * tunnels keep working but may not grow their {@link RelayBuffer} size class.
+ */
+public class RelayBufferPool implements MetricsSource {
+    private final int buffersCapacity;
+    private final int maxRetainedBuffersNumber;
+    private final long maxBorrowedBuffersNumber;
+
+    private final Deque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+
+    private int borrowedBuffersNumber;
+
+    private long socketReadsNumber;
+    private long socketWritesNumber;
+    private long gatheringWritesNumber;
+    private long sizeClassGrowsNumber;
+    private long sizeClassShrinksNumber;
+
+    public RelayBufferPool(int buffersCapacity, int maxRetainedBuffersNumber) {
+        this(buffersCapacity, maxRetainedBuffersNumber, Long.MAX_VALUE);
+    }
+
+    public RelayBufferPool(int buffersCapacity, int maxRetainedBuffersNumber, long memoryLimitBytes) {
+        this.buffersCapacity = buffersCapacity;
+        this.maxRetainedBuffersNumber = maxRetainedBuffersNumber;
+        this.maxBorrowedBuffersNumber = memoryLimitBytes / buffersCapacity;
+    }
+
+    public ByteBuffer acquire() {
+        ++this.borrowedBuffersNumber;
+        ByteBuffer buffer = this.freeBuffers.pollFirst();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(this.buffersCapacity);
+        }
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        --this.borrowedBuffersNumber;
+        if (this.freeBuffers.size() < this.maxRetainedBuffersNumber) {
+            buffer.clear();
+            this.freeBuffers.addFirst(buffer);
+        }
+    }
+
+    public void countSocketRead() {
+        ++this.socketReadsNumber;
+    }
+
+    public void countSocketWrite(boolean isGathering) {
+        ++this.socketWritesNumber;
+        if (isGathering) {
+            ++this.gatheringWritesNumber;
+        }
+    }
+
+    public boolean isGrowthAllowed() {
+        return this.borrowedBuffersNumber < this.maxBorrowedBuffersNumber;
+    }
+
+    public void countSizeClassChange(boolean isGrowth) {
+        if (isGrowth) {
+            ++this.sizeClassGrowsNumber;
+        } else {
+            ++this.sizeClassShrinksNumber;
+        }
+    }
+
+    public int getBorrowedBuffersNumber() {
+        return borrowedBuffersNumber;
+    }
+
+    public int getFreeBuffersNumber() {
+        return freeBuffers.size();
+    }
+
+    @Override
+    public void appendMetrics(StringBuilder metrics) {
+        metrics.append("relay_buffers_borrowed ").append(this.borrowedBuffersNumber).append('\n')
+                .append("relay_buffers_free ").append(this.freeBuffers.size()).append('\n')
+                .append("relay_socket_reads ").append(this.socketReadsNumber).append('\n')
+                .append("relay_socket_writes ").append(this.socketWritesNumber).append('\n')
+                .append("relay_gathering_writes ").append(this.gatheringWritesNumber).append('\n')
+                .append("relay_buffer_class_grows ").append(this.sizeClassGrowsNumber).append('\n')
+                .append("relay_buffer_class_shrinks ").append(this.sizeClassShrinksNumber).append('\n');
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Deficit round robin over relay directions sharing one selector. Every readiness event grants a direction one
+ * quantum on top of its deficit; a direction that spends it keeps the overdraft and waits for the next select.
+ */
+public class RelayScheduler implements MetricsSource {
+    private final int quantumBytes;
+
+    private long eventsNumber;
+    private long drainedEventsNumber;
+    private long budgetExhaustedEventsNumber;
+    private long blockedEventsNumber;
+    private long relayedBytesTotal;
+    private long eventBytesMax;
+
+    public RelayScheduler(int quantumBytes) {
+        this.quantumBytes = quantumBytes;
+    }
+
+    public int grantQuantum(int deficit) {
+        return Math.min(deficit, 0) + this.quantumBytes;
+    }
+
+    /**
+     * Returns the deficit the direction keeps until its next event.
+     */
+    public int finishEvent(int deficit, int eventBytesNumber, RelayStopReason reason) {
+        ++this.eventsNumber;
+        this.relayedBytesTotal += eventBytesNumber;
+        this.eventBytesMax = Math.max(this.eventBytesMax, eventBytesNumber);
+        switch (reason) {
+            case DRAINED -> ++this.drainedEventsNumber;
+            case BUDGET_EXHAUSTED -> ++this.budgetExhaustedEventsNumber;
+            case BLOCKED -> ++this.blockedEventsNumber;
+        }
+        return reason == RelayStopReason.BUDGET_EXHAUSTED ? deficit : 0;
+    }
+
+    public long getRelayedBytesTotal() {
+        return relayedBytesTotal;
+    }
+
+    @Override
+    public void appendMetrics(StringBuilder metrics) {
+        metrics.append("relay_quantum_bytes ").append(this.quantumBytes).append('\n')
+                .append("relay_read_events ").append(this.eventsNumber).append('\n')
+                .append("relay_read_events_drained ").append(this.drainedEventsNumber).append('\n')
+                .append("relay_read_events_budget_exhausted ").append(this.budgetExhaustedEventsNumber).append('\n')
+                .append("relay_read_events_blocked ").append(this.blockedEventsNumber).append('\n')
+                .append("relay_read_event_bytes_mean ")
+                .append(this.eventsNumber == 0 ? 0 : this.relayedBytesTotal / this.eventsNumber).append('\n')
+                .append("relay_read_event_bytes_max ").append(this.eventBytesMax).append('\n');
+    }
+}
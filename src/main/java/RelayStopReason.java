@@ -0,0 +1,5 @@
+public enum RelayStopReason {
+    DRAINED,
+    BUDGET_EXHAUSTED,
+    BLOCKED
+}
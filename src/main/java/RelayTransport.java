@@ -0,0 +1,24 @@
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * One direction of an established tunnel: bytes read from one socket are kept until they are written to the other.
+ * Read and write results follow the {@link SocketChannel} conventions, readiness always comes from the selector.
+ */
+public interface RelayTransport {
+    int readFrom(SocketChannel channel) throws IOException;
+
+    int writeTo(SocketChannel channel) throws IOException;
+
+    boolean hasPendingData();
+
+    boolean isFull();
+
+    void release();
+
+    /**
+     * Lets the transport resize itself after a read event that stopped for the given reason.
+     */
+    default void adaptCapacity(RelayStopReason stopReason) {
+    }
+}
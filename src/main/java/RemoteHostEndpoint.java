@@ -0,0 +1,24 @@
+/**
+ * Side of a tunnel that leads to the destination: a direct connection or a multiplexed stream to a peer proxy.
+ * It owns both relay directions, the {@link ClientEndpoint} reads into and writes from them.
+ */
+public interface RemoteHostEndpoint {
+    RelayTransport getRequestsToHostBuffer();
+
+    RelayTransport getResponsesFromHostBuffer();
+
+    void informAboutClientDataOccurrence();
+
+    void informAboutResponsesConsumption();
+
+    boolean isActive();
+
+    void close();
+
+    /**
+     * Kernel statistics of the socket to the destination, null when they are not sampled.
+     */
+    default SocketTcpInfo getTcpInfo() {
+        return null;
+    }
+}
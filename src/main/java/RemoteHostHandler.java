@@ -4,105 +4,215 @@ import org.apache.log4j.Logger;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.ConnectException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
+import java.net.NoRouteToHostException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
-public class RemoteHostHandler implements InetNodeHandler, Closeable {
+public class RemoteHostHandler implements InetNodeHandler, RemoteHostEndpoint, Closeable {
     private static final Logger logger = LogManager.getLogger(RemoteHostHandler.class);
 
-    private static final int BYTE_BUFFER_DEFAULT_CAPACITY = 8192;
-
-    private static final int NO_INTERESTED_OPTIONS = 0;
-
     private final SocketChannel remoteHostSocketChannel;
     private final SelectionKey remoteHostSelectionKey;
 
-    private final ClientHandler associatingClientHandler;
+    private final ClientEndpoint associatingClientHandler;
+
+    private final RelayTransport requestsToHostBuffer;
+    private final RelayTransport responsesFromHostBuffer;
 
     private final Socks5ProxyServer associatingProxyServer;
 
-    private final ByteBuffer requestsToHostBuffer = ByteBuffer.allocate(BYTE_BUFFER_DEFAULT_CAPACITY);
-    private final ByteBuffer responsesFromHostBuffer = ByteBuffer.allocate(BYTE_BUFFER_DEFAULT_CAPACITY);
+    private final EventLoopMonitor loopMonitor;
+    private final RelayScheduler relayScheduler;
+    private final DestinationCircuitBreaker circuitBreaker;
+    private final String destinationKey;
+    private final long connectStartMillis = System.currentTimeMillis();
+
+    private int responsesDeficit;
+
+    private SocketTcpInfo tcpInfo;
 
     private boolean isActive;
 
-    public RemoteHostHandler(ClientHandler clientHandler, InetAddress hostAddress, int hostPort,
+    public RemoteHostHandler(ClientEndpoint clientHandler, InetAddress hostAddress, int hostPort,
+                             Socks5ProxyServer proxyServer)
+            throws IOException {
+        this(clientHandler, hostAddress, hostPort,
+                proxyServer.createRelayTransport(), proxyServer.createRelayTransport(), proxyServer);
+    }
+
+    public RemoteHostHandler(ClientEndpoint clientHandler, InetAddress hostAddress, int hostPort,
+                             RelayTransport requestsToHostBuffer, RelayTransport responsesFromHostBuffer,
                              Socks5ProxyServer proxyServer)
             throws IOException {
-        this.associatingProxyServer = proxyServer;
         this.associatingClientHandler = clientHandler;
+        this.requestsToHostBuffer = requestsToHostBuffer;
+        this.responsesFromHostBuffer = responsesFromHostBuffer;
         this.remoteHostSocketChannel = SocketChannel.open();
         NonBlockingChannelServiceman.setNonBlock(remoteHostSocketChannel);
+        NonBlockingChannelServiceman.setNoDelay(remoteHostSocketChannel);
         logger.info("Start connecting to remote host " +
                 "with address + {" + hostAddress.getHostAddress() + "} and " +
                 "port {" + hostPort + "}");
-        this.remoteHostSocketChannel.connect(new InetSocketAddress(hostAddress, hostPort));
-        this.associatingProxyServer.putInetNodeHandlerByItsChannel(this.remoteHostSocketChannel, this);
+        this.associatingProxyServer = proxyServer;
+        this.loopMonitor = proxyServer.getLoopMonitor();
+        this.relayScheduler = proxyServer.getRelayScheduler();
+        this.circuitBreaker = proxyServer.getCircuitBreaker();
+        this.destinationKey = DestinationCircuitBreaker.getDestinationKey(hostAddress, hostPort);
+        try {
+            this.remoteHostSocketChannel.connect(new InetSocketAddress(hostAddress, hostPort));
+        } catch (IOException e) {
+            this.circuitBreaker.recordFailure(this.destinationKey, getConnectFailureReplyCode(e),
+                    System.currentTimeMillis());
+            this.remoteHostSocketChannel.close();
+            throw e;
+        }
         this.remoteHostSelectionKey = this.remoteHostSocketChannel.register(
-                clientHandler.getAssociatingWithClientChannelSelector(),
-                SelectionKey.OP_CONNECT
+                proxyServer.getEventsSelector(),
+                SelectionKey.OP_CONNECT,
+                this
         );
+        proxyServer.registerPendingConnect(this);
+        if (proxyServer.getTcpInfoSampler() != null) {
+            this.tcpInfo = proxyServer.getTcpInfoSampler().register(TunnelLeg.REMOTE_HOST, this.remoteHostSocketChannel);
+        }
+    }
+
+    public static byte getConnectFailureReplyCode(IOException exception) {
+        if (exception instanceof ConnectException) {
+            return Socks5MessagesExplorer.getConnectionRefusedIndicator();
+        }
+        if (exception instanceof NoRouteToHostException) {
+            return Socks5MessagesExplorer.getHostUnreachableIndicator();
+        }
+        return Socks5MessagesExplorer.getGeneralFailureIndicator();
     }
 
     private void connectToRemoteHost() {
+        this.associatingProxyServer.unregisterPendingConnect(this);
         try {
             this.remoteHostSocketChannel.finishConnect();
             this.isActive = true;
             logger.info("Remote host connection has finished. Change options to OP_READ...");
             this.remoteHostSelectionKey.interestOps(SelectionKey.OP_READ);
-            this.associatingClientHandler.setServerResponseType(
-                    Socks5MessagesExplorer.getSucceededIndicator());
-            this.associatingClientHandler.informAboutResponseReadiness();
+            this.circuitBreaker.recordSuccess(this.destinationKey);
+            this.associatingClientHandler.informAboutConnectionResult(Socks5MessagesExplorer.getSucceededIndicator());
+            if (this.requestsToHostBuffer.hasPendingData() && this.remoteHostSelectionKey.isValid()) {
+                this.flushRequestsToRemoteHost();
+            }
         } catch (IOException e) {
             logger.error(e.getMessage());
-            this.associatingClientHandler.setServerResponseType(
-                    Socks5MessagesExplorer.getHostUnreachableIndicator());
-            this.associatingClientHandler.informAboutResponseReadiness();
+            this.failConnect(getConnectFailureReplyCode(e));
         }
     }
 
+    public boolean isConnecting() {
+        return this.remoteHostSocketChannel.isConnectionPending();
+    }
+
+    public long getConnectStartMillis() {
+        return connectStartMillis;
+    }
+
+    public void abortConnectOnTimeout() {
+        logger.warn("Connect to " + this.destinationKey + " timed out");
+        this.failConnect(Socks5MessagesExplorer.getHostUnreachableIndicator());
+    }
+
+    private void failConnect(byte replyCode) {
+        this.associatingProxyServer.unregisterPendingConnect(this);
+        this.remoteHostSelectionKey.cancel();
+        this.detachTcpInfo();
+        try {
+            this.remoteHostSocketChannel.close();
+        } catch (IOException exception) {
+            logger.error(exception.getMessage());
+        }
+        this.circuitBreaker.recordFailure(this.destinationKey, replyCode, System.currentTimeMillis());
+        this.associatingClientHandler.informAboutConnectionResult(replyCode);
+    }
+
+    /**
+     * Reads until the socket is drained, the client side cannot take more or the deficit of this direction is
+     * spent, see {@link RelayScheduler}.
+     */
     private void readRemoteHostAnswer() {
+        this.responsesDeficit = this.relayScheduler.grantQuantum(this.responsesDeficit);
+        int eventBytesNumber = 0;
+        RelayStopReason stopReason;
         try {
-            if (isAllDataProcessed(this.responsesFromHostBuffer)) {
-                this.remoteHostSelectionKey.interestOps(NO_INTERESTED_OPTIONS);
-                return;
-            }
-            int readBytesNumber = this.remoteHostSocketChannel.read(responsesFromHostBuffer);
-            if (isNoDataTransferThroughChannel(readBytesNumber)) {
-                this.close();
-                return;
+            while (true) {
+                if (this.responsesFromHostBuffer.isFull()) {
+                    this.updateInterestOps(this.remoteHostSelectionKey.interestOps() & ~SelectionKey.OP_READ);
+                    stopReason = RelayStopReason.BLOCKED;
+                    break;
+                }
+                if (this.responsesDeficit <= 0) {
+                    stopReason = RelayStopReason.BUDGET_EXHAUSTED;
+                    break;
+                }
+                int readBytesNumber = this.responsesFromHostBuffer.readFrom(this.remoteHostSocketChannel);
+                if (readBytesNumber < 0) {
+                    this.close();
+                    return;
+                }
+                if (readBytesNumber == 0) {
+                    if (this.responsesFromHostBuffer.isFull()) {
+                        // a splice pipe out of slots reads nothing, the check above stops it as blocked
+                        continue;
+                    }
+                    stopReason = RelayStopReason.DRAINED;
+                    break;
+                }
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Got {" + readBytesNumber + "} from remote host. Transfer to client...");
+                }
+                this.responsesDeficit -= readBytesNumber;
+                eventBytesNumber += readBytesNumber;
+                this.associatingClientHandler.recordRelayedBytes(readBytesNumber);
+                this.associatingClientHandler.informAboutHostDataOccurrence();
+                if (!this.remoteHostSelectionKey.isValid()) {
+                    return;
+                }
             }
-            logger.info("Got {" + readBytesNumber + "} from remote host. Transfer to client...");
-            this.associatingClientHandler.informAboutHostDataOccurrence();
+            this.responsesDeficit = this.relayScheduler.finishEvent(this.responsesDeficit, eventBytesNumber,
+                    stopReason);
+            this.responsesFromHostBuffer.adaptCapacity(stopReason);
         } catch (IOException e) {
             this.handleException(e);
         }
     }
 
     private void writeRequestToRemoteHost() {
+        this.flushRequestsToRemoteHost();
+    }
+
+    /**
+     * Writes what the client has sent so far, keeping OP_WRITE only while some of it is pending.
+     */
+    private void flushRequestsToRemoteHost() {
         try {
-            this.requestsToHostBuffer.flip();
-            int writeBytesNumber = this.remoteHostSocketChannel.write(requestsToHostBuffer);
-            if (isNoDataTransferThroughChannel(writeBytesNumber)) {
-                this.close();
-                return;
+            int writeBytesNumber = this.requestsToHostBuffer.writeTo(this.remoteHostSocketChannel);
+            if (logger.isTraceEnabled()) {
+                logger.trace("Sent {" + writeBytesNumber + "} to remote host. Continuing processing...");
             }
-            logger.info("Sent {" + writeBytesNumber + "} to remote host. Continuing processing...");
-            if (isAllDataProcessed(requestsToHostBuffer)) {
-                this.requestsToHostBuffer.clear();
-                this.remoteHostSelectionKey.interestOps(SelectionKey.OP_READ);
+            if (this.requestsToHostBuffer.hasPendingData()) {
+                this.updateInterestOps(this.remoteHostSelectionKey.interestOps() | SelectionKey.OP_WRITE);
             } else {
-                this.requestsToHostBuffer.compact();
+                this.updateInterestOps(this.remoteHostSelectionKey.interestOps() & ~SelectionKey.OP_WRITE);
             }
+            this.associatingClientHandler.informAboutRequestsConsumption();
         } catch (IOException e) {
             this.handleException(e);
         }
     }
 
-    private boolean isAllDataProcessed(ByteBuffer byteBuffer) {
-        return byteBuffer.remaining() == 0;
+    private void updateInterestOps(int interestOps) {
+        if (this.remoteHostSelectionKey.interestOps() != interestOps) {
+            this.remoteHostSelectionKey.interestOps(interestOps);
+            this.loopMonitor.countInterestOpsUpdate();
+        }
     }
 
     private void handleException(Exception exception) {
@@ -110,20 +220,34 @@ public class RemoteHostHandler implements InetNodeHandler, Closeable {
         this.close();
     }
 
-    private boolean isNoDataTransferThroughChannel(int readBytesNumber) {
-        return readBytesNumber <= 0;
-    }
-
-    public ByteBuffer getRequestsToHostBuffer() {
+    @Override
+    public RelayTransport getRequestsToHostBuffer() {
         return requestsToHostBuffer;
     }
 
-    public ByteBuffer getResponsesFromHostBuffer() {
+    @Override
+    public RelayTransport getResponsesFromHostBuffer() {
         return responsesFromHostBuffer;
     }
 
-    public SelectionKey getRemoteHostSelectionKey() {
-        return remoteHostSelectionKey;
+    @Override
+    public void informAboutClientDataOccurrence() {
+        if (this.isActive && this.remoteHostSelectionKey.isValid()
+                && (this.remoteHostSelectionKey.interestOps() & SelectionKey.OP_WRITE) == 0) {
+            this.flushRequestsToRemoteHost();
+        }
+    }
+
+    @Override
+    public void informAboutResponsesConsumption() {
+        if (this.remoteHostSelectionKey.isValid()) {
+            this.updateInterestOps(this.remoteHostSelectionKey.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    @Override
+    public EventPriority getEventPriority() {
+        return this.isActive ? EventPriority.RELAY : EventPriority.HANDSHAKE;
     }
 
     @Override
@@ -141,14 +265,27 @@ public class RemoteHostHandler implements InetNodeHandler, Closeable {
         }
     }
 
+    @Override
     public boolean isActive() {
         return isActive;
     }
 
+    private void detachTcpInfo() {
+        if (this.tcpInfo != null) {
+            this.tcpInfo.detach();
+        }
+    }
+
+    @Override
+    public SocketTcpInfo getTcpInfo() {
+        return tcpInfo;
+    }
+
     @Override
     public void close() {
+        this.associatingProxyServer.unregisterPendingConnect(this);
         this.remoteHostSelectionKey.cancel();
-        this.associatingProxyServer.removeInetNodeHandlerByItsChannel(this.remoteHostSocketChannel);
+        this.detachTcpInfo();
         try {
             this.remoteHostSocketChannel.close();
             logger.info("Remote host socket channel was closed");
@@ -156,8 +293,8 @@ public class RemoteHostHandler implements InetNodeHandler, Closeable {
             logger.error(exception.getMessage());
         }
         this.isActive = false;
-        this.responsesFromHostBuffer.flip();
-        if (isAllDataProcessed(responsesFromHostBuffer) && this.associatingClientHandler.isActive()) {
+        this.requestsToHostBuffer.release();
+        if (!this.responsesFromHostBuffer.hasPendingData() && this.associatingClientHandler.isActive()) {
             this.associatingClientHandler.close();
         }
     }
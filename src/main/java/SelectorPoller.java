@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Waits for readiness of the selector, spinning on selectNow for up to an adaptive budget after activity before
+ * parking in a blocking select. A zero budget always blocks.
+ */
+public class SelectorPoller implements MetricsSource {
+    private static final int MIN_SPIN_BUDGET_SHARE = 64;
+
+    private final long maxSpinBudgetNanos;
+    private final long minSpinBudgetNanos;
+
+    private long spinBudgetNanos;
+    private long lastActivityNanos;
+
+    private long spinWakeupsNumber;
+    private long parksNumber;
+    private long selectNowCallsNumber;
+    private long spinNanosTotal;
+
+    public SelectorPoller(long maxSpinBudgetMicros) {
+        this.maxSpinBudgetNanos = TimeUnit.MICROSECONDS.toNanos(maxSpinBudgetMicros);
+        this.minSpinBudgetNanos = this.maxSpinBudgetNanos / MIN_SPIN_BUDGET_SHARE;
+        this.spinBudgetNanos = this.maxSpinBudgetNanos;
+    }
+
+    public int select(Selector selector, Consumer<SelectionKey> action, long timeoutMillis) throws IOException {
+        if (this.maxSpinBudgetNanos == 0) {
+            ++this.parksNumber;
+            return selector.select(action, timeoutMillis);
+        }
+        long spinStartNanos = System.nanoTime();
+        long spinDeadlineNanos = this.lastActivityNanos + this.spinBudgetNanos;
+        long currentNanos = spinStartNanos;
+        while (currentNanos < spinDeadlineNanos) {
+            ++this.selectNowCallsNumber;
+            int readyKeysNumber = selector.selectNow(action);
+            currentNanos = System.nanoTime();
+            if (readyKeysNumber > 0) {
+                ++this.spinWakeupsNumber;
+                this.spinNanosTotal += currentNanos - spinStartNanos;
+                this.lastActivityNanos = currentNanos;
+                this.spinBudgetNanos = Math.min(this.maxSpinBudgetNanos, 2 * this.spinBudgetNanos);
+                return readyKeysNumber;
+            }
+            Thread.onSpinWait();
+        }
+        if (currentNanos > spinStartNanos) {
+            this.spinNanosTotal += currentNanos - spinStartNanos;
+            this.spinBudgetNanos = Math.max(this.minSpinBudgetNanos, this.spinBudgetNanos / 2);
+        }
+        ++this.parksNumber;
+        int readyKeysNumber = selector.select(action, timeoutMillis);
+        if (readyKeysNumber > 0) {
+            this.lastActivityNanos = System.nanoTime();
+        }
+        return readyKeysNumber;
+    }
+
+    @Override
+    public void appendMetrics(StringBuilder metrics) {
+        long wakeupsNumber = this.spinWakeupsNumber + this.parksNumber;
+        metrics.append("busy_poll_max_budget_micros ")
+                .append(TimeUnit.NANOSECONDS.toMicros(this.maxSpinBudgetNanos)).append('\n')
+                .append("busy_poll_current_budget_micros ")
+                .append(TimeUnit.NANOSECONDS.toMicros(this.spinBudgetNanos)).append('\n')
+                .append("busy_poll_spin_wakeups ").append(this.spinWakeupsNumber).append('\n')
+                .append("busy_poll_parks ").append(this.parksNumber).append('\n')
+                .append("busy_poll_spin_ratio_percent ")
+                .append(wakeupsNumber == 0 ? 0 : 100 * this.spinWakeupsNumber / wakeupsNumber).append('\n')
+                .append("busy_poll_select_now_calls ").append(this.selectNowCallsNumber).append('\n')
+                .append("busy_poll_spin_millis ").append(TimeUnit.NANOSECONDS.toMillis(this.spinNanosTotal)).append('\n');
+    }
+}
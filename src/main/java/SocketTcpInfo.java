@@ -0,0 +1,85 @@
+/**
+ * Latest kernel TCP statistics of one tunnel socket, refreshed by the {@link TcpInfoSampler} thread.
+ * The owning handler detaches it before closing the socket and never reads the descriptor itself. A sample taken
+ * while the socket was being detached is thrown away, as the descriptor may already belong to another connection.
+ */
+public class SocketTcpInfo {
+    private final TunnelLeg leg;
+    private final int fd;
+
+    private final int[] fields = new int[LinuxNativeSockets.TCP_INFO_FIELDS_NUMBER];
+    private final int[] sampledFields = new int[LinuxNativeSockets.TCP_INFO_FIELDS_NUMBER];
+
+    private volatile boolean isDetached;
+
+    private long samplesNumber;
+    private int maxRttMicros;
+
+    public SocketTcpInfo(TunnelLeg leg, int fd) {
+        this.leg = leg;
+        this.fd = fd;
+    }
+
+    public TunnelLeg getLeg() {
+        return leg;
+    }
+
+    /**
+     * Called by the sampler thread only. Returns false once the socket is detached or gone, the sampler then
+     * forgets this object.
+     */
+    public boolean sample() {
+        if (this.isDetached || !LinuxNativeSockets.readTcpInfo(this.fd, this.sampledFields) || this.isDetached) {
+            return false;
+        }
+        synchronized (this) {
+            System.arraycopy(this.sampledFields, 0, this.fields, 0, this.fields.length);
+            ++this.samplesNumber;
+            this.maxRttMicros = Math.max(this.maxRttMicros, this.fields[LinuxNativeSockets.TCP_INFO_RTT_MICROS]);
+        }
+        return true;
+    }
+
+    /**
+     * Only marks the socket as closed, so the selector thread neither waits for a sample in progress nor takes one.
+     * The close record shows the last sample of the sampler.
+     */
+    public void detach() {
+        this.isDetached = true;
+    }
+
+    /**
+     * Adds the latest sample to per-leg totals indexed like {@link TcpInfoSampler} expects.
+     */
+    public synchronized void addTo(long[] legTotals) {
+        if (this.samplesNumber == 0) {
+            return;
+        }
+        ++legTotals[TcpInfoSampler.SOCKETS_NUMBER];
+        legTotals[TcpInfoSampler.RTT_MICROS_SUM] += this.fields[LinuxNativeSockets.TCP_INFO_RTT_MICROS];
+        legTotals[TcpInfoSampler.RTT_MICROS_MAX] = Math.max(legTotals[TcpInfoSampler.RTT_MICROS_MAX],
+                this.fields[LinuxNativeSockets.TCP_INFO_RTT_MICROS]);
+        legTotals[TcpInfoSampler.RETRANSMITS_SUM] += this.fields[LinuxNativeSockets.TCP_INFO_TOTAL_RETRANSMITS];
+        legTotals[TcpInfoSampler.SEND_QUEUE_BYTES_SUM] += this.fields[LinuxNativeSockets.TCP_INFO_SEND_QUEUE_BYTES];
+        legTotals[TcpInfoSampler.RECEIVE_QUEUE_BYTES_SUM] +=
+                this.fields[LinuxNativeSockets.TCP_INFO_RECEIVE_QUEUE_BYTES];
+    }
+
+    public synchronized void appendSummary(StringBuilder summary) {
+        summary.append(this.leg.getMetricsName()).append(" tcp {");
+        if (this.samplesNumber == 0) {
+            summary.append("not sampled}");
+            return;
+        }
+        summary.append("rtt ").append(this.fields[LinuxNativeSockets.TCP_INFO_RTT_MICROS])
+                .append("us +- ").append(this.fields[LinuxNativeSockets.TCP_INFO_RTT_VARIANCE_MICROS])
+                .append("us, max rtt ").append(this.maxRttMicros)
+                .append("us, retransmits ").append(this.fields[LinuxNativeSockets.TCP_INFO_TOTAL_RETRANSMITS])
+                .append(", cwnd ").append(this.fields[LinuxNativeSockets.TCP_INFO_CONGESTION_WINDOW])
+                .append(" x ").append(this.fields[LinuxNativeSockets.TCP_INFO_SEND_MSS])
+                .append(", unacked ").append(this.fields[LinuxNativeSockets.TCP_INFO_UNACKED_SEGMENTS])
+                .append(", send queue ").append(this.fields[LinuxNativeSockets.TCP_INFO_SEND_QUEUE_BYTES])
+                .append(", receive queue ").append(this.fields[LinuxNativeSockets.TCP_INFO_RECEIVE_QUEUE_BYTES])
+                .append(", samples ").append(this.samplesNumber).append('}');
+    }
+}
@@ -11,15 +11,22 @@ public class Socks5MessagesExplorer {
     private static final int MESSAGE_INET_ADDRESS_TYPE_INDEX = 3;
     private static final int MESSAGE_DOMAIN_NAME_LENGTH_INDEX = 4;
     private static final int MESSAGE_DOMAIN_NAME_BEGINNING_INDEX = 5;
+    private static final int IPv6_ADDRESS_LENGTH = 16;
+    private static final int PORT_LENGTH = 2;
 
     private static final byte SOCKS_5_VERSION_INDICATOR = 0x05;
     private static final byte AUTHENTICATION_IS_NOT_REQUIRED_INDICATOR = 0x00;
     private static final byte ESTABLISH_TCP_IP_CONNECTION_INDICATOR = 0x01;
     private static final byte COMMAND_NOT_SUPPORTED_INDICATOR = 0x07;
     private static final byte SUCCEEDED_INDICATOR = 0x00;
+    private static final byte GENERAL_FAILURE_INDICATOR = 0x01;
     private static final byte HOST_UNREACHABLE_INDICATOR = 0x04;
+    private static final byte CONNECTION_REFUSED_INDICATOR = 0x05;
     private static final byte ADDRESS_TYPE_NOT_SUPPORTED_INDICATOR = 0x08;
     private static final byte NO_ACCEPTABLE_METHODS_INDICATOR = (byte) 0xFF;
+    private static final byte IPv4_ADDRESS_TYPE_INDICATOR = 0x01;
+    private static final byte DOMAIN_NAME_ADDRESS_TYPE_INDICATOR = 0x03;
+    private static final byte IPv6_ADDRESS_TYPE_INDICATOR = 0x04;
 
     public static byte getAddressTypeNotSupportedIndicator() {
         return ADDRESS_TYPE_NOT_SUPPORTED_INDICATOR;
@@ -73,8 +80,8 @@ public class Socks5MessagesExplorer {
         return message[MESSAGE_INET_ADDRESS_TYPE_INDEX];
     }
 
-    public static byte[] getRemoteHostPortFromMessage(byte[] message, int length) {
-        return Arrays.copyOfRange(message, length - 2, length);
+    public static int getRemoteHostPortFromMessage(byte[] message, int length) {
+        return ((message[length - 2] & 0xFF) << Byte.SIZE) | (message[length - 1] & 0xFF);
     }
 
     public static byte[] getRemoteHostIPv4AddressFromMessage(byte[] message) {
@@ -86,8 +93,30 @@ public class Socks5MessagesExplorer {
     }
 
     public static String getDomainNameFromMessage(byte[] message) {
-        return new String(Arrays.copyOfRange(message, MESSAGE_DOMAIN_NAME_BEGINNING_INDEX,
-                Socks5MessagesExplorer.getDomainNameLengthFromMessage(message) + MESSAGE_DOMAIN_NAME_BEGINNING_INDEX));
+        return new String(message, MESSAGE_DOMAIN_NAME_BEGINNING_INDEX,
+                Byte.toUnsignedInt(Socks5MessagesExplorer.getDomainNameLengthFromMessage(message)));
+    }
+
+    /**
+     * Messages are parsed in place from a reused buffer, so whatever lies past the read bytes belongs to an earlier
+     * message and a short read must not be parsed at all.
+     */
+    public static boolean isGreetingComplete(byte[] message, int length) {
+        return length > MESSAGE_METHODS_NUMBER_INDEX
+                && length >= MESSAGE_METHODS_BEGINNING_INDEX + Byte.toUnsignedInt(getAuthMethodsNumberFromMessage(message));
+    }
+
+    public static boolean isRequestComplete(byte[] message, int length) {
+        if (length <= MESSAGE_DOMAIN_NAME_LENGTH_INDEX) {
+            return false;
+        }
+        int addressLength = switch (getInetAddressTypeFromMessage(message)) {
+            case IPv4_ADDRESS_TYPE_INDICATOR -> MESSAGE_IPv4_END_INDEX - MESSAGE_IPv4_BEGINNING_INDEX;
+            case DOMAIN_NAME_ADDRESS_TYPE_INDICATOR -> 1 + Byte.toUnsignedInt(getDomainNameLengthFromMessage(message));
+            case IPv6_ADDRESS_TYPE_INDICATOR -> IPv6_ADDRESS_LENGTH;
+            default -> 0;
+        };
+        return length >= MESSAGE_IPv4_BEGINNING_INDEX + addressLength + PORT_LENGTH;
     }
 
     public static boolean isResponseTypeSucceeded(byte responseType) {
@@ -98,7 +127,15 @@ public class Socks5MessagesExplorer {
         return SUCCEEDED_INDICATOR;
     }
 
+    public static byte getGeneralFailureIndicator() {
+        return GENERAL_FAILURE_INDICATOR;
+    }
+
     public static byte getHostUnreachableIndicator() {
         return HOST_UNREACHABLE_INDICATOR;
     }
+
+    public static byte getConnectionRefusedIndicator() {
+        return CONNECTION_REFUSED_INDICATOR;
+    }
 }
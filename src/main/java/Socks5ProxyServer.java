@@ -4,31 +4,122 @@ import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.channels.SelectableChannel;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
-public class Socks5ProxyServer {
+public class Socks5ProxyServer implements MetricsSource {
     private static final Logger logger = LogManager.getLogger(Socks5ProxyServer.class);
 
     private static final String PROXY_SERVER_IPv4_ADDRESS = "127.0.0.1";
-    private int proxyPort;
 
+    private static final int RELAY_BUFFERS_CAPACITY = 8192;
+    private static final int MAX_RELAY_BUFFER_SEGMENTS_NUMBER = 16;
+    private static final int MAX_RETAINED_RELAY_BUFFERS_NUMBER = 1024;
+    private static final int SPLICE_PIPES_CAPACITY = 65536;
+
+    private static final long LOOP_TICK_MILLIS = 100;
+    private static final int HANDSHAKE_BUFFER_CAPACITY = 512;
+    private static final long HANDSHAKE_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final int CAPTURE_SLOTS_NUMBER = 1 << 20;
+    @Getter
+    private ProxyServerSettings settings;
+
+    @Getter
     private Selector eventsSelector;
+    private ServerSocketChannel proxyServerSocketChannel;
 
     @Getter
     private DNSResolver dnsResolver;
 
-    private final Map<SelectableChannel, InetNodeHandler> inetNodeHandlersByTheirChannels = new ConcurrentHashMap<>();
+    private DNSCache dnsCache;
+
+    @Getter
+    private RelayScheduler relayScheduler;
+
+    @Getter
+    private DestinationCircuitBreaker circuitBreaker;
+
+    private final Set<RemoteHostHandler> pendingConnects = new LinkedHashSet<>();
+
+    private long connectTimeoutsNumber;
+
+    @Getter
+    private TrafficHeavyHitters heavyHitters;
+
+    private RelayBufferPool relayBufferPool;
+
+    @Getter
+    private final RelayBufferPool muxBufferPool =
+            new RelayBufferPool(MuxStream.STREAM_WINDOW, MAX_RETAINED_RELAY_BUFFERS_NUMBER);
+
+    @Getter
+    private MuxConnectionsPool muxConnectionsPool;
+
+    @Getter
+    private TrafficRecorder trafficRecorder;
+
+    @Getter
+    private TcpInfoSampler tcpInfoSampler;
+
+    private boolean isSpliceRelayEnabled;
+
+    private int lastTunnelId;
 
-    public void start(int proxyPort) {
-        this.proxyPort = proxyPort;
-        this.dnsResolver = new DNSResolver();
+    @Getter
+    private EventLoopMonitor loopMonitor;
+
+    private SelectorPoller selectorPoller;
+
+    private AcceptThrottle acceptThrottle;
+
+    private AllocationMonitor allocationMonitor;
+
+    /**
+     * Handshake messages are read and replies written through this one buffer, every use starts and finishes within
+     * a single event on the selector thread.
+     */
+    @Getter
+    private final ByteBuffer handshakeBuffer = ByteBuffer.allocate(HANDSHAKE_BUFFER_CAPACITY);
+
+    /**
+     * Filled by the selector instead of its selected-key set, which allocates a node per ready key and an iterator
+     * per loop iteration.
+     */
+    private final List<SelectionKey> readyKeys = new ArrayList<>();
+
+    private final Consumer<SelectionKey> readyKeysCollector = this.readyKeys::add;
+
+    private final List<SelectionKey> handshakeReadyKeys = new ArrayList<>();
+
+    private int handshakeRotation;
+
+    private long deferredHandshakeEventsNumber;
+
+    private final List<MetricsSource> metricsSources = new ArrayList<>();
+
+    public void start(ProxyServerSettings settings) {
+        this.settings = settings;
+        this.dnsCache = new DNSCache();
+        this.dnsResolver = new DNSResolver(this.dnsCache);
+        this.heavyHitters = new TrafficHeavyHitters(settings.getHeavyHittersWindowMillis());
+        this.circuitBreaker = new DestinationCircuitBreaker(settings.getConnectTimeoutMillis());
+        this.isSpliceRelayEnabled = settings.isSpliceRelayRequested() && LinuxNativeSockets.isAvailable();
+        if (settings.isSpliceRelayRequested() && !this.isSpliceRelayEnabled) {
+            logger.warn("splice relay is not available on this host, falling back to NIO relay");
+        }
         try {
             this.configureProxyServer();
         } catch (IOException e) {
@@ -39,54 +130,253 @@ public class Socks5ProxyServer {
     }
 
     private void configureProxyServer() throws IOException {
+        if (this.settings.getCaptureFile() != null) {
+            this.trafficRecorder = new TrafficRecorder(Path.of(this.settings.getCaptureFile()),
+                    CAPTURE_SLOTS_NUMBER, this.settings.isCaptureRedacted());
+            logger.info("Capturing traffic shape into " + this.settings.getCaptureFile());
+        }
         this.eventsSelector = SelectorProvider.provider().openSelector();
-        ServerSocketChannel proxyServerSocketChannel = ServerSocketChannel.open();
+        this.loopMonitor = new EventLoopMonitor(Thread.currentThread(), LOOP_TICK_MILLIS,
+                this.settings.getStallThresholdMillis());
+        this.metricsSources.add(this.loopMonitor);
+        this.selectorPoller = new SelectorPoller(this.settings.getBusyPollMicros());
+        this.metricsSources.add(this.selectorPoller);
+        this.acceptThrottle = new AcceptThrottle(TimeUnit.MILLISECONDS.toNanos(this.settings.getOverloadLagMillis()));
+        this.metricsSources.add(this.acceptThrottle);
+        this.relayBufferPool = new RelayBufferPool(RELAY_BUFFERS_CAPACITY, MAX_RETAINED_RELAY_BUFFERS_NUMBER,
+                this.settings.getRelayMemoryLimitBytes());
+        this.metricsSources.add(this.relayBufferPool);
+        this.relayScheduler = new RelayScheduler(this.settings.getRelayQuantumBytes());
+        this.metricsSources.add(this.relayScheduler);
+        if (this.settings.isAllocationTracking()) {
+            this.allocationMonitor = new AllocationMonitor(this.relayScheduler);
+            this.metricsSources.add(this.allocationMonitor);
+        }
+        if (this.settings.getTcpInfoIntervalMillis() > 0) {
+            if (LinuxNativeSockets.isAvailable()) {
+                this.tcpInfoSampler = new TcpInfoSampler(this.settings.getTcpInfoIntervalMillis());
+                this.tcpInfoSampler.start();
+                this.metricsSources.add(this.tcpInfoSampler);
+            } else {
+                logger.warn("TCP info sampling needs the native socket library, sampling is disabled");
+            }
+        }
+        this.metricsSources.add(this.dnsCache);
+        this.metricsSources.add(this.circuitBreaker);
+        if (this.settings.getDnsCacheFile() != null) {
+            this.warmUpDnsCache(Path.of(this.settings.getDnsCacheFile()));
+        }
+        this.proxyServerSocketChannel = ServerSocketChannel.open();
         NonBlockingChannelServiceman.setNonBlock(proxyServerSocketChannel);
-        proxyServerSocketChannel.bind(new InetSocketAddress(PROXY_SERVER_IPv4_ADDRESS, this.proxyPort));
-        proxyServerSocketChannel.register(this.eventsSelector, SelectionKey.OP_ACCEPT);
-        this.dnsResolver.startResolving(this.eventsSelector, this);
+        this.proxyServerSocketChannel.bind(new InetSocketAddress(PROXY_SERVER_IPv4_ADDRESS,
+                this.settings.getProxyServerPort()));
+        this.proxyServerSocketChannel.register(this.eventsSelector, SelectionKey.OP_ACCEPT);
+        this.dnsResolver.startResolving(this.eventsSelector);
+        if (this.settings.getAdminConsolePort() != 0) {
+            new AdminListenerHandler(this.eventsSelector, PROXY_SERVER_IPv4_ADDRESS,
+                    this.settings.getAdminConsolePort(), this);
+        }
+        if (this.settings.getMuxListenPort() != 0) {
+            new MuxListenerHandler(this.eventsSelector, PROXY_SERVER_IPv4_ADDRESS,
+                    this.settings.getMuxListenPort(), this);
+        }
+        if (this.settings.getMuxUpstreamProxyAddress() != null) {
+            this.muxConnectionsPool = new MuxConnectionsPool(this.settings.getMuxUpstreamProxyAddress(),
+                    this.settings.getMuxConnectionsNumber(), this);
+            this.metricsSources.add(this.muxConnectionsPool);
+        }
+    }
+
+    private void warmUpDnsCache(Path dnsCachePath) {
+        if (Files.exists(dnsCachePath)) {
+            try {
+                logger.info("Loaded " + this.dnsCache.loadSnapshot(dnsCachePath) + " DNS cache entries");
+            } catch (IOException e) {
+                logger.warn("DNS cache snapshot was not loaded: " + e.getMessage());
+            }
+        }
+        if (this.settings.getDnsSnapshotIntervalMillis() > 0) {
+            this.dnsCache.startSnapshotting(dnsCachePath, this.settings.getDnsSnapshotIntervalMillis());
+        }
     }
 
     private void processClientsInLoop() {
-        logger.info("Proxy server starts working, IPv4: " + PROXY_SERVER_IPv4_ADDRESS + ". Port: " + this.proxyPort);
+        logger.info("Proxy server starts working, IPv4: " + PROXY_SERVER_IPv4_ADDRESS + ". " +
+                "Port: " + this.settings.getProxyServerPort());
+        this.loopMonitor.startWatchdog();
         try {
             while (true) {
-                this.eventsSelector.select();
-                this.processSelectedEvents(this.eventsSelector.selectedKeys().iterator());
+                this.selectorPoller.select(this.eventsSelector, this.readyKeysCollector,
+                        this.loopMonitor.getSelectTimeoutMillis());
+                boolean isTickDue = this.loopMonitor.onIterationStart(this.readyKeys.size());
+                this.processSelectedEvents();
+                if (isTickDue) {
+                    this.processLoopTick();
+                }
+                this.loopMonitor.onIterationEnd();
             }
         } catch (IOException e) {
             logger.error(e.getMessage());
         }
     }
 
-    private void processSelectedEvents(Iterator<SelectionKey> selectedEventsKeys) {
-        while (selectedEventsKeys.hasNext()) {
-            SelectionKey eventKey = selectedEventsKeys.next();
-            selectedEventsKeys.remove();
+    private void processLoopTick() {
+        this.acceptThrottle.onLoopTick(this.loopMonitor.getLastLagNanos());
+        this.abortTimedOutConnects(System.currentTimeMillis());
+        if (this.muxConnectionsPool != null) {
+            this.muxConnectionsPool.reopenLostConnections();
+        }
+    }
+
+    /**
+     * Pending connects share one timeout, so they time out in registration order.
+     */
+    private void abortTimedOutConnects(long currentTimeMillis) {
+        while (!this.pendingConnects.isEmpty()) {
+            RemoteHostHandler remoteHostHandler = this.pendingConnects.iterator().next();
+            if (currentTimeMillis - remoteHostHandler.getConnectStartMillis() < this.settings.getConnectTimeoutMillis()) {
+                return;
+            }
+            ++this.connectTimeoutsNumber;
+            remoteHostHandler.abortConnectOnTimeout();
+        }
+    }
+
+    public void registerPendingConnect(RemoteHostHandler remoteHostHandler) {
+        this.pendingConnects.add(remoteHostHandler);
+    }
+
+    /**
+     * Called once the connect has completed, failed or was abandoned.
+     */
+    public void unregisterPendingConnect(RemoteHostHandler remoteHostHandler) {
+        this.pendingConnects.remove(remoteHostHandler);
+    }
+
+    /**
+     * Serves ready events by priority: established relays first, then handshake and DNS progress within a time
+     * slice, then new clients within the accept budget. Events left over are not lost, the level-triggered selector
+     * reports them again on the next iteration.
+     */
+    private void processSelectedEvents() {
+        boolean isAcceptReady = false;
+        for (int i = 0; i < this.readyKeys.size(); ++i) {
+            SelectionKey eventKey = this.readyKeys.get(i);
+            if (!eventKey.isValid()) {
+                continue;
+            }
+            if (eventKey.channel() == this.proxyServerSocketChannel) {
+                isAcceptReady = true;
+                continue;
+            }
+            InetNodeHandler handler = (InetNodeHandler) eventKey.attachment();
+            if (handler.getEventPriority() == EventPriority.RELAY) {
+                this.dispatchEvent(handler, EventPriority.RELAY);
+            } else {
+                this.handshakeReadyKeys.add(eventKey);
+            }
+        }
+        this.readyKeys.clear();
+        this.processHandshakeEvents();
+        if (isAcceptReady) {
+            long allocatedBytesBefore = this.allocationMonitor == null ? 0 : this.allocationMonitor.getAllocatedBytes();
+            long handlingStartNanos = System.nanoTime();
+            this.acceptNewClients();
+            this.loopMonitor.recordEventHandling(ServerSocketChannel.class, System.nanoTime() - handlingStartNanos);
+            if (this.allocationMonitor != null) {
+                this.allocationMonitor.recordEvent(EventPriority.ACCEPT, allocatedBytesBefore);
+            }
+        }
+    }
+
+    /**
+     * Runs at least one handshake event, then more until the slice is spent. The starting point rotates so that
+     * the same keys are not always the ones left over.
+     */
+    private void processHandshakeEvents() {
+        int readyKeysNumber = this.handshakeReadyKeys.size();
+        if (readyKeysNumber == 0) {
+            return;
+        }
+        long sliceDeadlineNanos = System.nanoTime() + HANDSHAKE_SLICE_NANOS;
+        int firstKeyIndex = Math.floorMod(this.handshakeRotation++, readyKeysNumber);
+        for (int i = 0; i < readyKeysNumber; ++i) {
+            if (i > 0 && System.nanoTime() >= sliceDeadlineNanos) {
+                this.deferredHandshakeEventsNumber += readyKeysNumber - i;
+                break;
+            }
+            SelectionKey eventKey = this.handshakeReadyKeys.get((firstKeyIndex + i) % readyKeysNumber);
             if (eventKey.isValid()) {
-                if (eventKey.isAcceptable()) {
-                    this.acceptNewClient(eventKey);
-                } else {
-                    this.inetNodeHandlersByTheirChannels.get(eventKey.channel()).handleEvent();
-                }
+                this.dispatchEvent((InetNodeHandler) eventKey.attachment(), EventPriority.HANDSHAKE);
             }
         }
+        this.handshakeReadyKeys.clear();
     }
 
-    private void acceptNewClient(SelectionKey acceptKey) {
-        try {
-            ClientHandler clientHandler = new ClientHandler(acceptKey, this);
-            this.putInetNodeHandlerByItsChannel(acceptKey.channel(), clientHandler);
-        } catch (IOException e) {
-            logger.error(e.getMessage());
+    private void dispatchEvent(InetNodeHandler handler, EventPriority priority) {
+        long allocatedBytesBefore = this.allocationMonitor == null ? 0 : this.allocationMonitor.getAllocatedBytes();
+        long handlingStartNanos = System.nanoTime();
+        handler.handleEvent();
+        this.loopMonitor.recordEventHandling(handler.getClass(), System.nanoTime() - handlingStartNanos);
+        if (this.allocationMonitor != null) {
+            this.allocationMonitor.recordEvent(priority, allocatedBytesBefore);
         }
     }
 
-    public void putInetNodeHandlerByItsChannel(SelectableChannel channel, InetNodeHandler handler) {
-        inetNodeHandlersByTheirChannels.put(channel, handler);
+    @Override
+    public void appendMetrics(StringBuilder metrics) {
+        for (MetricsSource source : this.metricsSources) {
+            source.appendMetrics(metrics);
+        }
+        metrics.append("connects_pending ").append(this.pendingConnects.size()).append('\n')
+                .append("connect_timeouts ").append(this.connectTimeoutsNumber).append('\n')
+                .append("handshake_events_deferred ").append(this.deferredHandshakeEventsNumber).append('\n');
+    }
+
+    public int nextTunnelId() {
+        return ++this.lastTunnelId;
+    }
+
+    public RelayTransport createRelayTransport() {
+        if (this.isSpliceRelayEnabled) {
+            return new SpliceRelayTransport(SPLICE_PIPES_CAPACITY);
+        }
+        return new RelayBuffer(this.relayBufferPool, MAX_RELAY_BUFFER_SEGMENTS_NUMBER);
     }
 
-    public void removeInetNodeHandlerByItsChannel(SelectableChannel channel) {
-        inetNodeHandlersByTheirChannels.remove(channel);
+    private void acceptNewClients() {
+        int acceptsBudget = this.acceptThrottle.getAcceptsBudget();
+        int acceptedNumber = 0;
+        while (acceptedNumber < acceptsBudget) {
+            SocketChannel clientSocketChannel;
+            try {
+                clientSocketChannel = this.proxyServerSocketChannel.accept();
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+                break;
+            }
+            if (clientSocketChannel == null) {
+                break;
+            }
+            ++acceptedNumber;
+            try {
+                new ClientHandler(clientSocketChannel, this);
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+                closeQuietly(clientSocketChannel);
+            }
+        }
+        this.acceptThrottle.recordAccepts(acceptedNumber);
+        if (this.allocationMonitor != null) {
+            this.allocationMonitor.recordHandshakesStarted(acceptedNumber);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
     }
 }
@@ -0,0 +1,111 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Weighted Space-Saving summary with a fixed number of counters kept in an indexed min-heap.
+ */
+public class SpaceSavingSketch {
+    private final int capacity;
+
+    private final String[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final Map<String, Integer> positionsByKeys;
+
+    private int size;
+
+    public SpaceSavingSketch(int capacity) {
+        this.capacity = capacity;
+        this.keys = new String[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.positionsByKeys = new HashMap<>(2 * capacity);
+    }
+
+    public void add(String key, long weight) {
+        Integer position = this.positionsByKeys.get(key);
+        if (position != null) {
+            this.counts[position] += weight;
+            this.siftDown(position);
+            return;
+        }
+        if (this.size < this.capacity) {
+            this.keys[this.size] = key;
+            this.counts[this.size] = weight;
+            this.errors[this.size] = 0;
+            this.positionsByKeys.put(key, this.size);
+            this.siftUp(this.size);
+            ++this.size;
+            return;
+        }
+        long evictedCount = this.counts[0];
+        this.positionsByKeys.remove(this.keys[0]);
+        this.keys[0] = key;
+        this.counts[0] = evictedCount + weight;
+        this.errors[0] = evictedCount;
+        this.positionsByKeys.put(key, 0);
+        this.siftDown(0);
+    }
+
+    public void clear() {
+        for (int i = 0; i < this.size; ++i) {
+            this.keys[i] = null;
+        }
+        this.positionsByKeys.clear();
+        this.size = 0;
+    }
+
+    public List<HeavyHitter> getCounters() {
+        List<HeavyHitter> counters = new ArrayList<>(this.size);
+        for (int i = 0; i < this.size; ++i) {
+            counters.add(new HeavyHitter(this.keys[i], this.counts[i], this.errors[i]));
+        }
+        return counters;
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (this.counts[parent] <= this.counts[position]) {
+                return;
+            }
+            this.swap(parent, position);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < this.size && this.counts[left] < this.counts[smallest]) {
+                smallest = left;
+            }
+            if (right < this.size && this.counts[right] < this.counts[smallest]) {
+                smallest = right;
+            }
+            if (smallest == position) {
+                return;
+            }
+            this.swap(smallest, position);
+            position = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        String key = this.keys[i];
+        long count = this.counts[i];
+        long error = this.errors[i];
+        this.keys[i] = this.keys[j];
+        this.counts[i] = this.counts[j];
+        this.errors[i] = this.errors[j];
+        this.keys[j] = key;
+        this.counts[j] = count;
+        this.errors[j] = error;
+        this.positionsByKeys.put(this.keys[i], i);
+        this.positionsByKeys.put(this.keys[j], j);
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Zero-copy direction of a tunnel for Linux: bytes go socket -> pipe -> socket with {@code splice(2)}
+ * and never enter user space. The pipe is opened on the first read and kept until the tunnel is closed.
+ * A direction always moves bytes between the same two sockets, so their descriptors are resolved once.
+ * Every splice into the pipe takes at least one of its slots, so small reads can fill it long before it holds
+ * {@code pipeCapacity} bytes; a read that would block while bytes are pending therefore marks the pipe full.
+ * On loopback the loop thread spends about 0.7 of the NIO path's CPU per GiB ({@code RelayTransportCpuBenchmark}).
+ */
+public class SpliceRelayTransport implements RelayTransport {
+    private static final int WOULD_BLOCK = -1;
+    private static final int END_OF_STREAM = 0;
+
+    private final int pipeCapacity;
+
+    private long pipe = -1;
+    private int pendingBytesNumber;
+    private boolean isPipeOutOfSlots;
+
+    private SocketChannel sourceChannel;
+    private int sourceFd;
+    private SocketChannel sinkChannel;
+    private int sinkFd;
+
+    public SpliceRelayTransport(int pipeCapacity) {
+        this.pipeCapacity = pipeCapacity;
+    }
+
+    @Override
+    public int readFrom(SocketChannel channel) throws IOException {
+        if (this.pipe == -1) {
+            this.pipe = LinuxNativeSockets.createPipe(this.pipeCapacity);
+        }
+        int movedBytesNumber = LinuxNativeSockets.splice(getSourceFd(channel), getPipeWriteFd(),
+                this.pipeCapacity - this.pendingBytesNumber);
+        if (movedBytesNumber == END_OF_STREAM) {
+            return -1;
+        }
+        if (movedBytesNumber == WOULD_BLOCK) {
+            this.isPipeOutOfSlots = this.pendingBytesNumber > 0;
+            return 0;
+        }
+        this.pendingBytesNumber += movedBytesNumber;
+        return movedBytesNumber;
+    }
+
+    @Override
+    public int writeTo(SocketChannel channel) throws IOException {
+        if (this.pendingBytesNumber == 0) {
+            return 0;
+        }
+        int movedBytesNumber = LinuxNativeSockets.splice(getPipeReadFd(), getSinkFd(channel),
+                this.pendingBytesNumber);
+        if (movedBytesNumber == WOULD_BLOCK) {
+            return 0;
+        }
+        this.pendingBytesNumber -= movedBytesNumber;
+        this.isPipeOutOfSlots = false;
+        return movedBytesNumber;
+    }
+
+    @Override
+    public boolean hasPendingData() {
+        return this.pendingBytesNumber != 0;
+    }
+
+    @Override
+    public boolean isFull() {
+        return this.isPipeOutOfSlots || this.pendingBytesNumber >= this.pipeCapacity;
+    }
+
+    @Override
+    public void release() {
+        if (this.pipe != -1) {
+            LinuxNativeSockets.closePipe(this.pipe);
+            this.pipe = -1;
+            this.pendingBytesNumber = 0;
+            this.isPipeOutOfSlots = false;
+        }
+        this.sourceChannel = null;
+        this.sinkChannel = null;
+    }
+
+    private int getSourceFd(SocketChannel channel) {
+        if (channel != this.sourceChannel) {
+            this.sourceFd = LinuxNativeSockets.getChannelFileDescriptor(channel);
+            this.sourceChannel = channel;
+        }
+        return this.sourceFd;
+    }
+
+    private int getSinkFd(SocketChannel channel) {
+        if (channel != this.sinkChannel) {
+            this.sinkFd = LinuxNativeSockets.getChannelFileDescriptor(channel);
+            this.sinkChannel = channel;
+        }
+        return this.sinkFd;
+    }
+
+    private int getPipeReadFd() {
+        return (int) this.pipe;
+    }
+
+    private int getPipeWriteFd() {
+        return (int) (this.pipe >>> 32);
+    }
+}
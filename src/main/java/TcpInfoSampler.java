@@ -0,0 +1,125 @@
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads {@code TCP_INFO} of every tunnel socket from a low-priority thread, so slow transfers can be told apart:
+ * high RTT, retransmits or a small congestion window point at the network leg, a growing send queue with an idle
+ * network points at the peer, while loop lag and full relay buffers point at the proxy itself.
+ * Sockets are spread evenly over the sampling interval instead of being read in one burst. The selector thread only
+ * registers sockets and reads the per-leg totals published after every pass.
+ */
+public class TcpInfoSampler implements MetricsSource {
+    private static final Logger logger = LogManager.getLogger(TcpInfoSampler.class);
+
+    public static final int SOCKETS_NUMBER = 0;
+    public static final int RTT_MICROS_SUM = 1;
+    public static final int RTT_MICROS_MAX = 2;
+    public static final int RETRANSMITS_SUM = 3;
+    public static final int SEND_QUEUE_BYTES_SUM = 4;
+    public static final int RECEIVE_QUEUE_BYTES_SUM = 5;
+    private static final int LEG_TOTALS_SIZE = 6;
+
+    private final long intervalNanos;
+
+    private final Queue<SocketTcpInfo> registeredSockets = new ConcurrentLinkedQueue<>();
+    private final List<SocketTcpInfo> sampledSockets = new ArrayList<>();
+
+    private volatile long[][] legsTotals = new long[TunnelLeg.values().length][LEG_TOTALS_SIZE];
+    private volatile long passesNumber;
+    private volatile long lastPassMillis;
+
+    public TcpInfoSampler(long intervalMillis) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    public void start() {
+        Thread sampler = new Thread(this::sampleInLoop, "tcp-info-sampler");
+        sampler.setDaemon(true);
+        sampler.setPriority(Thread.MIN_PRIORITY);
+        sampler.start();
+    }
+
+    /**
+     * Returns the handle the owner must detach before closing the socket, or null if it cannot be sampled.
+     */
+    public SocketTcpInfo register(TunnelLeg leg, SocketChannel channel) {
+        int fd = LinuxNativeSockets.getChannelFileDescriptor(channel);
+        if (fd < 0) {
+            return null;
+        }
+        SocketTcpInfo tcpInfo = new SocketTcpInfo(leg, fd);
+        this.registeredSockets.add(tcpInfo);
+        return tcpInfo;
+    }
+
+    private void sampleInLoop() {
+        while (true) {
+            long passStartNanos = System.nanoTime();
+            for (SocketTcpInfo tcpInfo = this.registeredSockets.poll(); tcpInfo != null;
+                 tcpInfo = this.registeredSockets.poll()) {
+                this.sampledSockets.add(tcpInfo);
+            }
+            this.samplePass(passStartNanos);
+            long untilNextPassNanos = passStartNanos + this.intervalNanos - System.nanoTime();
+            if (untilNextPassNanos > 0) {
+                LockSupport.parkNanos(untilNextPassNanos);
+            }
+        }
+    }
+
+    private void samplePass(long passStartNanos) {
+        long[][] passTotals = new long[TunnelLeg.values().length][LEG_TOTALS_SIZE];
+        int socketsNumber = this.sampledSockets.size();
+        int i = 0;
+        for (int visitedNumber = 0; visitedNumber < socketsNumber; ++visitedNumber) {
+            SocketTcpInfo tcpInfo = this.sampledSockets.get(i);
+            if (tcpInfo.sample()) {
+                tcpInfo.addTo(passTotals[tcpInfo.getLeg().ordinal()]);
+                ++i;
+            } else {
+                int lastIndex = this.sampledSockets.size() - 1;
+                this.sampledSockets.set(i, this.sampledSockets.get(lastIndex));
+                this.sampledSockets.remove(lastIndex);
+            }
+            long untilNextSocketNanos = passStartNanos + this.intervalNanos * (visitedNumber + 1) / socketsNumber
+                    - System.nanoTime();
+            if (untilNextSocketNanos > 0) {
+                LockSupport.parkNanos(untilNextSocketNanos);
+            }
+        }
+        this.legsTotals = passTotals;
+        this.lastPassMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - passStartNanos);
+        ++this.passesNumber;
+        if (logger.isDebugEnabled()) {
+            logger.debug("TCP info pass over " + socketsNumber + " sockets took " + this.lastPassMillis + " ms");
+        }
+    }
+
+    @Override
+    public void appendMetrics(StringBuilder metrics) {
+        long[][] totals = this.legsTotals;
+        metrics.append("tcp_info_passes ").append(this.passesNumber).append('\n')
+                .append("tcp_info_last_pass_ms ").append(this.lastPassMillis).append('\n');
+        for (TunnelLeg leg : TunnelLeg.values()) {
+            long[] legTotals = totals[leg.ordinal()];
+            String prefix = "tcp_info_" + leg.getMetricsName() + "_";
+            long socketsNumber = legTotals[SOCKETS_NUMBER];
+            metrics.append(prefix).append("sockets ").append(socketsNumber).append('\n')
+                    .append(prefix).append("rtt_us_mean ")
+                    .append(socketsNumber == 0 ? 0 : legTotals[RTT_MICROS_SUM] / socketsNumber).append('\n')
+                    .append(prefix).append("rtt_us_max ").append(legTotals[RTT_MICROS_MAX]).append('\n')
+                    .append(prefix).append("retransmits ").append(legTotals[RETRANSMITS_SUM]).append('\n')
+                    .append(prefix).append("send_queue_bytes ").append(legTotals[SEND_QUEUE_BYTES_SUM]).append('\n')
+                    .append(prefix).append("receive_queue_bytes ").append(legTotals[RECEIVE_QUEUE_BYTES_SUM])
+                    .append('\n');
+        }
+    }
+}
@@ -0,0 +1,32 @@
+import java.util.HashMap;
+import java.util.Map;
+
+public enum TrafficEventType {
+    TUNNEL_OPENED((byte) 0x01),
+    CLIENT_GREETING((byte) 0x02),
+    CLIENT_REQUEST((byte) 0x03),
+    CONNECTION_RESULT((byte) 0x04),
+    CLIENT_TO_REMOTE_HOST((byte) 0x05),
+    REMOTE_HOST_TO_CLIENT((byte) 0x06),
+    TUNNEL_CLOSED((byte) 0x07);
+
+    private final byte value;
+
+    private static final Map<Byte, TrafficEventType> map = new HashMap<>() {{
+        for (var type : TrafficEventType.values()) {
+            put(type.value, type);
+        }
+    }};
+
+    public static TrafficEventType getTypeByCode(byte code) {
+        return map.get(code);
+    }
+
+    TrafficEventType(byte value) {
+        this.value = value;
+    }
+
+    public byte getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.List;
+
+public class TrafficHeavyHitters {
+    private static final int SKETCH_CAPACITY = 64;
+    private static final int WINDOW_SLOTS_NUMBER = 6;
+
+    private final HeavyHittersTracker destinationsByBytes;
+    private final HeavyHittersTracker destinationsByConnections;
+    private final HeavyHittersTracker clientsByBytes;
+    private final HeavyHittersTracker clientsByConnections;
+
+    public TrafficHeavyHitters(long windowDurationMillis) {
+        this.destinationsByBytes = new HeavyHittersTracker(SKETCH_CAPACITY, WINDOW_SLOTS_NUMBER, windowDurationMillis);
+        this.destinationsByConnections = new HeavyHittersTracker(SKETCH_CAPACITY, WINDOW_SLOTS_NUMBER, windowDurationMillis);
+        this.clientsByBytes = new HeavyHittersTracker(SKETCH_CAPACITY, WINDOW_SLOTS_NUMBER, windowDurationMillis);
+        this.clientsByConnections = new HeavyHittersTracker(SKETCH_CAPACITY, WINDOW_SLOTS_NUMBER, windowDurationMillis);
+    }
+
+    public void recordConnection(String clientKey, String destinationKey) {
+        long currentTimeMillis = System.currentTimeMillis();
+        this.clientsByConnections.add(clientKey, 1, currentTimeMillis);
+        this.destinationsByConnections.add(destinationKey, 1, currentTimeMillis);
+    }
+
+    public void recordRelayedBytes(String clientKey, String destinationKey, long bytesNumber) {
+        long currentTimeMillis = System.currentTimeMillis();
+        this.clientsByBytes.add(clientKey, bytesNumber, currentTimeMillis);
+        this.destinationsByBytes.add(destinationKey, bytesNumber, currentTimeMillis);
+    }
+
+    public List<HeavyHitter> getTopDestinationsByBytes(int limit) {
+        return this.destinationsByBytes.getTopHitters(limit, System.currentTimeMillis());
+    }
+
+    public List<HeavyHitter> getTopDestinationsByConnections(int limit) {
+        return this.destinationsByConnections.getTopHitters(limit, System.currentTimeMillis());
+    }
+
+    public List<HeavyHitter> getTopClientsByBytes(int limit) {
+        return this.clientsByBytes.getTopHitters(limit, System.currentTimeMillis());
+    }
+
+    public List<HeavyHitter> getTopClientsByConnections(int limit) {
+        return this.clientsByConnections.getTopHitters(limit, System.currentTimeMillis());
+    }
+}
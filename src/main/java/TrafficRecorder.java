@@ -0,0 +1,75 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Captures tunnel timing and relayed chunk sizes into a memory-mapped ring file of fixed 64-byte slots.
+ * Payload is never stored, handshake messages are truncated to {@link #SLOT_DATA_CAPACITY} bytes.
+ * <p>
+ * File header: magic, version, slots number, next slot index (long). Slot: event type, stored data length,
+ * two reserved bytes, tunnel id, microseconds since capture start (long), size, data.
+ */
+public class TrafficRecorder {
+    public static final int MAGIC = 0x53355243;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int SLOT_SIZE = 64;
+    public static final int SLOT_DATA_OFFSET = 20;
+    public static final int SLOT_DATA_CAPACITY = SLOT_SIZE - SLOT_DATA_OFFSET;
+
+    public static final int HEADER_SLOTS_NUMBER_OFFSET = 8;
+    public static final int HEADER_NEXT_SLOT_OFFSET = 16;
+
+    private static final int CLIENT_REQUEST_DESTINATION_OFFSET = 4;
+
+    private final MappedByteBuffer ringFile;
+    private final int slotsNumber;
+    private final boolean isRedacted;
+    private final long captureStartNanos = System.nanoTime();
+
+    private long nextSlotIndex;
+
+    public TrafficRecorder(Path ringFilePath, int slotsNumber, boolean isRedacted) throws IOException {
+        this.slotsNumber = slotsNumber;
+        this.isRedacted = isRedacted;
+        try (FileChannel ringFileChannel = FileChannel.open(ringFilePath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            this.ringFile = ringFileChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) slotsNumber * SLOT_SIZE);
+        }
+        this.ringFile.putInt(0, MAGIC);
+        this.ringFile.putInt(Integer.BYTES, VERSION);
+        this.ringFile.putInt(HEADER_SLOTS_NUMBER_OFFSET, slotsNumber);
+        this.ringFile.putLong(HEADER_NEXT_SLOT_OFFSET, 0);
+    }
+
+    public void recordEvent(TrafficEventType type, int tunnelId, int size) {
+        this.putSlot(type, tunnelId, size, 0);
+    }
+
+    public void recordHandshakeMessage(TrafficEventType type, int tunnelId, byte[] message, int length) {
+        int storedLength = Math.min(length, SLOT_DATA_CAPACITY);
+        int slotOffset = this.putSlot(type, tunnelId, length, storedLength);
+        for (int i = 0; i < storedLength; ++i) {
+            boolean isRedactedByte = this.isRedacted && type == TrafficEventType.CLIENT_REQUEST
+                    && i >= CLIENT_REQUEST_DESTINATION_OFFSET;
+            this.ringFile.put(slotOffset + SLOT_DATA_OFFSET + i, isRedactedByte ? 0 : message[i]);
+        }
+    }
+
+    private int putSlot(TrafficEventType type, int tunnelId, int size, int storedDataLength) {
+        int slotOffset = HEADER_SIZE + (int) (this.nextSlotIndex % this.slotsNumber) * SLOT_SIZE;
+        this.ringFile.put(slotOffset, type.getValue());
+        this.ringFile.put(slotOffset + 1, (byte) storedDataLength);
+        this.ringFile.putInt(slotOffset + 4, tunnelId);
+        this.ringFile.putLong(slotOffset + 8,
+                TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - this.captureStartNanos));
+        this.ringFile.putInt(slotOffset + 16, size);
+        ++this.nextSlotIndex;
+        this.ringFile.putLong(HEADER_NEXT_SLOT_OFFSET, this.nextSlotIndex);
+        return slotOffset;
+    }
+}
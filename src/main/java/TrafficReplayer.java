@@ -0,0 +1,256 @@
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a {@link TrafficRecorder} capture against a running proxy on loopback: tunnels are opened with the
+ * recorded arrival pattern, every CONNECT is pointed to a local sink and the recorded chunk sizes are pushed
+ * through in both directions. Prints throughput, handshake latency and tunnel duration percentiles.
+ * <p>
+ * Usage: {@code TrafficReplayer <captureFile> <proxyHost:proxyPort> [speedFactor]}
+ */
+public class TrafficReplayer {
+    private static final Logger logger = LogManager.getLogger(TrafficReplayer.class);
+
+    private static final int SOCKET_TIMEOUT_MILLIS = 30000;
+    private static final int CONNECT_REPLY_SIZE = 10;
+    private static final int SELECTED_METHOD_REPLY_SIZE = 2;
+    private static final int CHUNK_BUFFER_SIZE = 65536;
+
+    private static final byte[] DEFAULT_CLIENT_GREETING = {0x05, 0x01, 0x00};
+
+    private final InetSocketAddress proxyAddress;
+    private final double speedFactor;
+
+    private final Queue<long[]> tunnelsResults = new ConcurrentLinkedQueue<>();
+    private final Queue<Integer> failedTunnelsIds = new ConcurrentLinkedQueue<>();
+
+    public TrafficReplayer(InetSocketAddress proxyAddress, double speedFactor) {
+        this.proxyAddress = proxyAddress;
+        this.speedFactor = speedFactor;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: TrafficReplayer <captureFile> <proxyHost:proxyPort> [speedFactor]");
+            return;
+        }
+        try {
+            int separatorIndex = args[1].lastIndexOf(':');
+            InetSocketAddress proxyAddress = new InetSocketAddress(args[1].substring(0, separatorIndex),
+                    Integer.parseInt(args[1].substring(separatorIndex + 1)));
+            double speedFactor = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+            List<CapturedTunnel> capturedTunnels = loadCapturedTunnels(Path.of(args[0]));
+            new TrafficReplayer(proxyAddress, speedFactor).replay(capturedTunnels);
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+        }
+    }
+
+    public static List<CapturedTunnel> loadCapturedTunnels(Path captureFilePath) throws IOException {
+        MappedByteBuffer ringFile;
+        try (FileChannel ringFileChannel = FileChannel.open(captureFilePath, StandardOpenOption.READ)) {
+            ringFile = ringFileChannel.map(FileChannel.MapMode.READ_ONLY, 0, ringFileChannel.size());
+        }
+        if (ringFile.getInt(0) != TrafficRecorder.MAGIC) {
+            throw new IOException(captureFilePath + " is not a traffic capture file");
+        }
+        int slotsNumber = ringFile.getInt(TrafficRecorder.HEADER_SLOTS_NUMBER_OFFSET);
+        long nextSlotIndex = ringFile.getLong(TrafficRecorder.HEADER_NEXT_SLOT_OFFSET);
+        long firstSlotIndex = Math.max(0, nextSlotIndex - slotsNumber);
+
+        Map<Integer, CapturedTunnel> tunnelsByIds = new LinkedHashMap<>();
+        for (long slotIndex = firstSlotIndex; slotIndex < nextSlotIndex; ++slotIndex) {
+            int slotOffset = TrafficRecorder.HEADER_SIZE + (int) (slotIndex % slotsNumber) * TrafficRecorder.SLOT_SIZE;
+            TrafficEventType type = TrafficEventType.getTypeByCode(ringFile.get(slotOffset));
+            int storedDataLength = ringFile.get(slotOffset + 1);
+            int tunnelId = ringFile.getInt(slotOffset + 4);
+            long timestampMicros = ringFile.getLong(slotOffset + 8);
+            int size = ringFile.getInt(slotOffset + 16);
+            if (type == TrafficEventType.TUNNEL_OPENED) {
+                tunnelsByIds.put(tunnelId, new CapturedTunnel(tunnelId, timestampMicros));
+                continue;
+            }
+            CapturedTunnel tunnel = tunnelsByIds.get(tunnelId);
+            if (tunnel == null || type == null) {
+                continue;
+            }
+            switch (type) {
+                case CLIENT_GREETING -> {
+                    if (storedDataLength == size) {
+                        byte[] greeting = new byte[storedDataLength];
+                        ringFile.get(slotOffset + TrafficRecorder.SLOT_DATA_OFFSET, greeting);
+                        tunnel.setClientGreeting(greeting);
+                    }
+                }
+                case CONNECTION_RESULT -> tunnel.setConnectionResult((byte) size);
+                case CLIENT_TO_REMOTE_HOST -> tunnel.getRelayedChunksSizes().add(size);
+                case REMOTE_HOST_TO_CLIENT -> tunnel.getRelayedChunksSizes().add(-size);
+                default -> {
+                }
+            }
+        }
+        List<CapturedTunnel> capturedTunnels = new ArrayList<>(tunnelsByIds.values());
+        capturedTunnels.sort(Comparator.comparingLong(CapturedTunnel::getOpenedMicros));
+        return capturedTunnels;
+    }
+
+    public void replay(List<CapturedTunnel> capturedTunnels) throws InterruptedException {
+        List<Thread> tunnelsThreads = new ArrayList<>();
+        long replayStartNanos = System.nanoTime();
+        long captureStartMicros = capturedTunnels.isEmpty() ? 0 : capturedTunnels.get(0).getOpenedMicros();
+        for (CapturedTunnel tunnel : capturedTunnels) {
+            if (!Socks5MessagesExplorer.isResponseTypeSucceeded(tunnel.getConnectionResult())) {
+                continue;
+            }
+            long arrivalNanos = (long) (TimeUnit.MICROSECONDS.toNanos(tunnel.getOpenedMicros() - captureStartMicros)
+                    / this.speedFactor);
+            long waitNanos = replayStartNanos + arrivalNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            Thread tunnelThread = new Thread(() -> this.replayTunnel(tunnel), "replay-" + tunnel.getTunnelId());
+            tunnelThread.start();
+            tunnelsThreads.add(tunnelThread);
+        }
+        for (Thread tunnelThread : tunnelsThreads) {
+            tunnelThread.join();
+        }
+        this.printReport(System.nanoTime() - replayStartNanos);
+    }
+
+    private void replayTunnel(CapturedTunnel tunnel) {
+        long tunnelStartNanos = System.nanoTime();
+        try (ServerSocket sinkServerSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket clientSocket = new Socket()) {
+            clientSocket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+            sinkServerSocket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+            clientSocket.connect(this.proxyAddress, SOCKET_TIMEOUT_MILLIS);
+            DataInputStream clientInput = new DataInputStream(clientSocket.getInputStream());
+            OutputStream clientOutput = clientSocket.getOutputStream();
+
+            byte[] greeting = tunnel.getClientGreeting() != null ? tunnel.getClientGreeting() : DEFAULT_CLIENT_GREETING;
+            clientOutput.write(greeting);
+            clientInput.readFully(new byte[SELECTED_METHOD_REPLY_SIZE]);
+            clientOutput.write(this.getConnectRequestToSink(sinkServerSocket.getLocalPort()));
+            byte[] connectReply = new byte[CONNECT_REPLY_SIZE];
+            clientInput.readFully(connectReply);
+            long handshakeNanos = System.nanoTime() - tunnelStartNanos;
+            if (!Socks5MessagesExplorer.isResponseTypeSucceeded(connectReply[1])) {
+                throw new IOException("Proxy answered " + connectReply[1] + " to CONNECT");
+            }
+
+            try (Socket sinkSocket = sinkServerSocket.accept()) {
+                sinkSocket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+                long[] sinkRelayedBytesNumber = new long[1];
+                Thread sinkThread = new Thread(() -> sinkRelayedBytesNumber[0] =
+                        relayChunks(tunnel.getRelayedChunksSizes(), sinkSocket, false));
+                sinkThread.start();
+                long clientRelayedBytesNumber = relayChunks(tunnel.getRelayedChunksSizes(), clientSocket, true);
+                sinkThread.join();
+                if (sinkRelayedBytesNumber[0] < 0 || clientRelayedBytesNumber < 0) {
+                    throw new IOException("Tunnel " + tunnel.getTunnelId() + " broke while relaying");
+                }
+                this.tunnelsResults.add(new long[]{handshakeNanos, System.nanoTime() - tunnelStartNanos,
+                        clientRelayedBytesNumber});
+            }
+        } catch (IOException | InterruptedException e) {
+            logger.error("Replay of tunnel " + tunnel.getTunnelId() + " failed: " + e.getMessage());
+            this.failedTunnelsIds.add(tunnel.getTunnelId());
+        }
+    }
+
+    private byte[] getConnectRequestToSink(int sinkPort) {
+        return ByteBuffer.allocate(CONNECT_REPLY_SIZE)
+                .put(Socks5MessagesExplorer.getSocks5VersionIndicator())
+                .put((byte) 0x01)
+                .put((byte) 0x00)
+                .put(RemoteHostAddressType.IPv4.getValue())
+                .put(InetAddress.getLoopbackAddress().getAddress())
+                .putShort((short) sinkPort)
+                .array();
+    }
+
+    /**
+     * Writes the chunks going out of this side and reads the ones coming in.
+     * Returns the number of relayed bytes or -1 when the connection broke.
+     */
+    private static long relayChunks(List<Integer> chunksSizes, Socket socket, boolean isClientSide) {
+        byte[] chunkBuffer = new byte[CHUNK_BUFFER_SIZE];
+        long relayedBytesNumber = 0;
+        try {
+            InputStream input = socket.getInputStream();
+            OutputStream output = socket.getOutputStream();
+            for (int signedSize : chunksSizes) {
+                boolean isOutgoing = (signedSize > 0) == isClientSide;
+                int remainingBytesNumber = Math.abs(signedSize);
+                while (remainingBytesNumber > 0) {
+                    int partSize = Math.min(remainingBytesNumber, chunkBuffer.length);
+                    if (isOutgoing) {
+                        output.write(chunkBuffer, 0, partSize);
+                    } else {
+                        partSize = input.read(chunkBuffer, 0, partSize);
+                        if (partSize < 0) {
+                            return -1;
+                        }
+                    }
+                    remainingBytesNumber -= partSize;
+                }
+                relayedBytesNumber += Math.abs(signedSize);
+            }
+            return relayedBytesNumber;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void printReport(long wallNanos) {
+        List<Long> handshakesNanos = new ArrayList<>();
+        List<Long> durationsNanos = new ArrayList<>();
+        long relayedBytesNumber = 0;
+        for (long[] result : this.tunnelsResults) {
+            handshakesNanos.add(result[0]);
+            durationsNanos.add(result[1]);
+            relayedBytesNumber += result[2];
+        }
+        double wallSeconds = wallNanos / 1e9;
+        System.out.printf("tunnels replayed: %d, failed: %d%n", this.tunnelsResults.size(), this.failedTunnelsIds.size());
+        System.out.printf("relayed: %d bytes in %.3f s, throughput %.2f MB/s%n",
+                relayedBytesNumber, wallSeconds, relayedBytesNumber / 1e6 / wallSeconds);
+        printPercentiles("handshake latency", handshakesNanos);
+        printPercentiles("tunnel duration", durationsNanos);
+    }
+
+    private static void printPercentiles(String name, List<Long> samplesNanos) {
+        if (samplesNanos.isEmpty()) {
+            return;
+        }
+        Collections.sort(samplesNanos);
+        System.out.printf("%s ms: p50 %.3f, p99 %.3f, max %.3f%n", name,
+                samplesNanos.get(samplesNanos.size() / 2) / 1e6,
+                samplesNanos.get(Math.min(samplesNanos.size() - 1, samplesNanos.size() * 99 / 100)) / 1e6,
+                samplesNanos.get(samplesNanos.size() - 1) / 1e6);
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * Socket of a tunnel: the one accepted from the SOCKS client or the one connected to the destination.
+ */
+public enum TunnelLeg {
+    CLIENT("client"),
+    REMOTE_HOST("remote");
+
+    private final String metricsName;
+
+    TunnelLeg(String metricsName) {
+        this.metricsName = metricsName;
+    }
+
+    public String getMetricsName() {
+        return metricsName;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * JNI shim behind LinuxNativeSockets.
+ *
+ * Build (Linux only) with the Makefile next to this file or with mvn -Pnative compile, both put
+ * libsocks5native.so into target/native. Start the proxy with -Djava.library.path=target/native.
+ */
+#define _GNU_SOURCE
+#include <errno.h>
+#include <fcntl.h>
+#include <stdio.h>
+#include <string.h>
+#include <unistd.h>
+#include <netinet/in.h>
+#include <netinet/tcp.h>
+#include <sys/ioctl.h>
+#include <sys/socket.h>
+#include <linux/sockios.h>
+#include <jni.h>
+
+/* Layout of the array filled by readTcpInfo, mirrored by the TCP_INFO_* constants of LinuxNativeSockets. */
+enum {
+    TCP_INFO_RTT_MICROS,
+    TCP_INFO_RTT_VARIANCE_MICROS,
+    TCP_INFO_TOTAL_RETRANSMITS,
+    TCP_INFO_CONGESTION_WINDOW,
+    TCP_INFO_SEND_MSS,
+    TCP_INFO_UNACKED_SEGMENTS,
+    TCP_INFO_SEND_QUEUE_BYTES,
+    TCP_INFO_RECEIVE_QUEUE_BYTES,
+    TCP_INFO_FIELDS_NUMBER
+};
+
+static jmethodID get_fd_val_method;
+
+static void throw_io_exception(JNIEnv *env, const char *operation) {
+    char message[256];
+    jclass exception_class = (*env)->FindClass(env, "java/io/IOException");
+    snprintf(message, sizeof(message), "%s: %s", operation, strerror(errno));
+    (*env)->ThrowNew(env, exception_class, message);
+}
+
+/* SocketChannelImpl and DatagramChannelImpl implement sun.nio.ch.SelChImpl.getFDVal(). */
+JNIEXPORT jint JNICALL
+Java_LinuxNativeSockets_getChannelFileDescriptor(JNIEnv *env, jclass clazz, jobject channel) {
+    if (get_fd_val_method == NULL) {
+        jclass sel_ch_impl = (*env)->FindClass(env, "sun/nio/ch/SelChImpl");
+        if (sel_ch_impl == NULL) {
+            return -1;
+        }
+        get_fd_val_method = (*env)->GetMethodID(env, sel_ch_impl, "getFDVal", "()I");
+        if (get_fd_val_method == NULL) {
+            return -1;
+        }
+    }
+    return (*env)->CallIntMethod(env, channel, get_fd_val_method);
+}
+
+JNIEXPORT jlong JNICALL
+Java_LinuxNativeSockets_createPipe(JNIEnv *env, jclass clazz, jint capacity) {
+    int fds[2];
+    if (pipe2(fds, O_NONBLOCK | O_CLOEXEC) != 0) {
+        throw_io_exception(env, "pipe2");
+        return -1;
+    }
+    /* Best effort: the default pipe capacity is used when the limit does not allow the requested one. */
+    fcntl(fds[1], F_SETPIPE_SZ, capacity);
+    return ((jlong) fds[1] << 32) | (jlong) (unsigned int) fds[0];
+}
+
+JNIEXPORT void JNICALL
+Java_LinuxNativeSockets_closePipe(JNIEnv *env, jclass clazz, jlong pipe) {
+    close((int) pipe);
+    close((int) (pipe >> 32));
+}
+
+JNIEXPORT jint JNICALL
+Java_LinuxNativeSockets_splice(JNIEnv *env, jclass clazz, jint from_fd, jint to_fd, jint length) {
+    ssize_t moved;
+    do {
+        moved = splice(from_fd, NULL, to_fd, NULL, (size_t) length, SPLICE_F_MOVE | SPLICE_F_NONBLOCK);
+    } while (moved < 0 && errno == EINTR);
+    if (moved < 0) {
+        if (errno == EAGAIN) {
+            return -1;
+        }
+        throw_io_exception(env, "splice");
+        return -1;
+    }
+    return (jint) moved;
+}
+
+/* Returns JNI_FALSE without touching the array when the socket is gone, it is a sampling race and not an error. */
+JNIEXPORT jboolean JNICALL
+Java_LinuxNativeSockets_readTcpInfo(JNIEnv *env, jclass clazz, jint fd, jintArray fields) {
+    struct tcp_info info;
+    socklen_t info_length = sizeof(info);
+    int send_queue_bytes = 0;
+    int receive_queue_bytes = 0;
+    jint values[TCP_INFO_FIELDS_NUMBER];
+    memset(&info, 0, sizeof(info));
+    if (getsockopt(fd, IPPROTO_TCP, TCP_INFO, &info, &info_length) != 0) {
+        return JNI_FALSE;
+    }
+    ioctl(fd, SIOCOUTQ, &send_queue_bytes);
+    ioctl(fd, SIOCINQ, &receive_queue_bytes);
+    values[TCP_INFO_RTT_MICROS] = (jint) info.tcpi_rtt;
+    values[TCP_INFO_RTT_VARIANCE_MICROS] = (jint) info.tcpi_rttvar;
+    values[TCP_INFO_TOTAL_RETRANSMITS] = (jint) info.tcpi_total_retrans;
+    values[TCP_INFO_CONGESTION_WINDOW] = (jint) info.tcpi_snd_cwnd;
+    values[TCP_INFO_SEND_MSS] = (jint) info.tcpi_snd_mss;
+    values[TCP_INFO_UNACKED_SEGMENTS] = (jint) info.tcpi_unacked;
+    values[TCP_INFO_SEND_QUEUE_BYTES] = (jint) send_queue_bytes;
+    values[TCP_INFO_RECEIVE_QUEUE_BYTES] = (jint) receive_queue_bytes;
+    (*env)->SetIntArrayRegion(env, fields, 0, TCP_INFO_FIELDS_NUMBER, values);
+    return JNI_TRUE;
+}
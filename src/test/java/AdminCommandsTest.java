@@ -0,0 +1,39 @@
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdminCommandsTest {
+
+    @Test
+    public void answersTopCommandWithAtMostLimitRows() throws Exception {
+        int adminConsolePort = LoopbackProxy.findFreePort();
+        LoopbackProxy proxy = LoopbackProxy.start("-a", Integer.toString(adminConsolePort));
+        try (ServerSocketChannel destination = LoopbackProxy.openDestination()) {
+            InetSocketAddress destinationAddress = (InetSocketAddress) destination.getLocalAddress();
+            SocketChannel tunnel = proxy.openTunnel(destinationAddress);
+            destination.accept().close();
+            tunnel.close();
+
+            String answer = LoopbackProxy.queryAdminConsole(adminConsolePort, "top destinations connections 1");
+            assertTrue(answer.startsWith("127.0.0.1:" + destinationAddress.getPort() + "\t1\t"), answer);
+            assertEquals(1, answer.split("\n").length);
+        }
+    }
+
+    @Test
+    public void answersNonPositiveTopLimitWithUsageAndKeepsRunning() throws Exception {
+        int adminConsolePort = LoopbackProxy.findFreePort();
+        LoopbackProxy.start("-a", Integer.toString(adminConsolePort));
+
+        for (String limit : new String[]{"-1", "0", "ten"}) {
+            String answer = LoopbackProxy.queryAdminConsole(adminConsolePort, "top clients bytes " + limit);
+            assertTrue(answer.startsWith("Available commands:"), answer);
+        }
+        assertTrue(LoopbackProxy.queryAdminConsole(adminConsolePort, "metrics").contains("connects_pending "));
+    }
+}
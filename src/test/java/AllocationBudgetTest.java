@@ -0,0 +1,103 @@
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Heap allocated by the selector thread of a proxy running without allocation tracking, read from outside through
+ * {@link com.sun.management.ThreadMXBean}, so the whole loop is measured and not just the handlers. Logging is
+ * raised to WARN meanwhile: the per-tunnel INFO lines cost a few KiB each with location info in the layout, which is
+ * a matter of logging configuration rather than of the proxy.
+ */
+public class AllocationBudgetTest {
+    private static final int WARM_UP_MEGABYTES = 64;
+    private static final int RELAYED_MEGABYTES = 512;
+    private static final int WARM_UP_TUNNELS_NUMBER = 200;
+    private static final int MEASURED_TUNNELS_NUMBER = 500;
+    private static final int BYTES_IN_MB = 1024 * 1024;
+
+    private final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final Logger rootLogger = LogManager.getRootLogger();
+
+    private Level rootLoggerLevel;
+    private LoopbackProxy proxy;
+    private ServerSocketChannel destination;
+
+    @BeforeEach
+    public void startProxy() throws Exception {
+        this.threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        this.rootLoggerLevel = this.rootLogger.getLevel();
+        this.rootLogger.setLevel(Level.WARN);
+        this.proxy = LoopbackProxy.start();
+        this.destination = LoopbackProxy.openDestination();
+    }
+
+    @AfterEach
+    public void closeDestination() throws Exception {
+        this.destination.close();
+        this.rootLogger.setLevel(this.rootLoggerLevel);
+    }
+
+    @Test
+    public void relayStaysWithinAllocationBudget() throws Exception {
+        try (SocketChannel tunnel = this.proxy.openTunnel((InetSocketAddress) this.destination.getLocalAddress());
+             SocketChannel remoteHost = this.destination.accept()) {
+            relay(tunnel, remoteHost, WARM_UP_MEGABYTES);
+            long allocatedBytesBefore = this.getLoopAllocatedBytes();
+            relay(tunnel, remoteHost, RELAYED_MEGABYTES);
+            long bytesPerMb = (this.getLoopAllocatedBytes() - allocatedBytesBefore) / RELAYED_MEGABYTES;
+
+            assertTrue(bytesPerMb <= AllocationMonitor.RELAY_BUDGET_BYTES_PER_MB,
+                    "Selector thread allocated " + bytesPerMb + " bytes per relayed MB");
+        }
+    }
+
+    @Test
+    public void handshakeStaysWithinAllocationBudget() throws Exception {
+        this.openAndCloseTunnels(WARM_UP_TUNNELS_NUMBER);
+        long allocatedBytesBefore = this.getLoopAllocatedBytes();
+        this.openAndCloseTunnels(MEASURED_TUNNELS_NUMBER);
+        long bytesPerTunnel = (this.getLoopAllocatedBytes() - allocatedBytesBefore) / MEASURED_TUNNELS_NUMBER;
+
+        assertTrue(bytesPerTunnel <= AllocationMonitor.HANDSHAKE_BUDGET_BYTES,
+                "Selector thread allocated " + bytesPerTunnel + " bytes per tunnel");
+    }
+
+    /**
+     * Sends the given amount from the client to the remote host and the same amount back.
+     */
+    private static void relay(SocketChannel tunnel, SocketChannel remoteHost, long megabytes) throws Exception {
+        LoopbackProxy.transfer(tunnel, remoteHost, megabytes * BYTES_IN_MB);
+        LoopbackProxy.transfer(remoteHost, tunnel, megabytes * BYTES_IN_MB);
+    }
+
+    private void openAndCloseTunnels(int tunnelsNumber) throws Exception {
+        InetSocketAddress destinationAddress = (InetSocketAddress) this.destination.getLocalAddress();
+        List<SocketChannel> channels = new ArrayList<>();
+        for (int i = 0; i < tunnelsNumber; ++i) {
+            channels.add(this.proxy.openTunnel(destinationAddress));
+            channels.add(this.destination.accept());
+        }
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+        Thread.sleep(500);
+    }
+
+    private long getLoopAllocatedBytes() {
+        return this.threadMXBean.getThreadAllocatedBytes(this.proxy.getLoopThread().getId());
+    }
+}
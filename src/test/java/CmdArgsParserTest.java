@@ -0,0 +1,103 @@
+import org.apache.commons.cli.ParseException;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CmdArgsParserTest {
+
+    @Test
+    public void appliesDefaultsToOmittedOptions() throws ParseException {
+        ProxyServerSettings settings = parse();
+        assertEquals(1080, settings.getProxyServerPort());
+        assertEquals(65536, settings.getRelayQuantumBytes());
+        assertEquals(10_000, settings.getConnectTimeoutMillis());
+        assertEquals(0, settings.getBusyPollMicros());
+        assertEquals(256L * 1024 * 1024, settings.getRelayMemoryLimitBytes());
+    }
+
+    @Test
+    public void convertsUnitsOfGivenOptions() throws ParseException {
+        ProxyServerSettings settings = parse("-q", "1", "-t", "3", "-M", "2", "-T", "5", "-b", "50");
+        assertEquals(1, settings.getRelayQuantumBytes());
+        assertEquals(3000, settings.getConnectTimeoutMillis());
+        assertEquals(2L * 1024 * 1024, settings.getRelayMemoryLimitBytes());
+        assertEquals(5000, settings.getTcpInfoIntervalMillis());
+        assertEquals(50, settings.getBusyPollMicros());
+    }
+
+    @Test
+    public void rejectsNonPositiveRelayQuantum() {
+        assertThrows(ParseException.class, () -> parse("-q", "0"));
+        assertThrows(ParseException.class, () -> parse("--relayQuantum", "-65536"));
+        assertThrows(ParseException.class, () -> parse("-q", "4294967296"));
+        assertThrows(ParseException.class, () -> parse("-q", "64k"));
+    }
+
+    @Test
+    public void rejectsOutOfRangeNumericOptions() {
+        assertThrows(ParseException.class, () -> parse("-b", "-1"));
+        assertThrows(ParseException.class, () -> parse("-M", "0"));
+        assertThrows(ParseException.class, () -> parse("-t", "0"));
+        assertThrows(ParseException.class, () -> parse("-T", "-1"));
+        assertThrows(ParseException.class, () -> parse("-l", "0"));
+        assertThrows(ParseException.class, () -> parse("-s", "0"));
+        assertThrows(ParseException.class, () -> parse("-D", "0"));
+        assertThrows(ParseException.class, () -> parse("-w", "0"));
+        assertThrows(ParseException.class, () -> parse("-c", "0"));
+    }
+
+    @Test
+    public void parsesListeningPorts() throws ParseException {
+        ProxyServerSettings defaults = parse();
+        assertEquals(0, defaults.getAdminConsolePort());
+        assertEquals(0, defaults.getMuxListenPort());
+
+        ProxyServerSettings settings = parse("-p", "1", "-a", "9090", "-m", "65535");
+        assertEquals(1, settings.getProxyServerPort());
+        assertEquals(9090, settings.getAdminConsolePort());
+        assertEquals(65535, settings.getMuxListenPort());
+    }
+
+    @Test
+    public void rejectsMalformedListeningPorts() {
+        assertThrows(ParseException.class, () -> parse("-p", "abc"));
+        assertThrows(ParseException.class, () -> parse("-p", "70000"));
+        assertThrows(ParseException.class, () -> parse("-p", "0"));
+        assertThrows(ParseException.class, () -> parse("--adminConsolePort", "0"));
+        assertThrows(ParseException.class, () -> parse("-a", "-1"));
+        assertThrows(ParseException.class, () -> parse("-m", "0"));
+        assertThrows(ParseException.class, () -> parse("-m", "1080x"));
+    }
+
+    @Test
+    public void parsesUpstreamProxyAddress() throws Exception {
+        assertNull(parse().getMuxUpstreamProxyAddress());
+        assertEquals(new InetSocketAddress("127.0.0.1", 1081),
+                parse("-u", "127.0.0.1:1081").getMuxUpstreamProxyAddress());
+        assertEquals(new InetSocketAddress(InetAddress.getByName("::1"), 1081),
+                parse("--muxUpstreamProxy", "[::1]:1081").getMuxUpstreamProxyAddress());
+    }
+
+    @Test
+    public void rejectsMalformedUpstreamProxyAddress() {
+        assertThrows(ParseException.class, () -> parse("-u", "127.0.0.1"));
+        assertThrows(ParseException.class, () -> parse("-u", ":1081"));
+        assertThrows(ParseException.class, () -> parse("-u", "127.0.0.1:"));
+        assertThrows(ParseException.class, () -> parse("-u", "127.0.0.1:0"));
+        assertThrows(ParseException.class, () -> parse("-u", "127.0.0.1:65536"));
+        assertThrows(ParseException.class, () -> parse("-u", "::1:1081"));
+        assertThrows(ParseException.class, () -> parse("-u", "[::1]"));
+        assertThrows(ParseException.class, () -> parse("-u", "host.invalid:1081"));
+    }
+
+    private static ProxyServerSettings parse(String... args) throws ParseException {
+        CmdArgsParser cmdArgsParser = new CmdArgsParser();
+        cmdArgsParser.parseArguments(args);
+        return cmdArgsParser.getProxyServerSettings();
+    }
+}
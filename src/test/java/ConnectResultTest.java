@@ -0,0 +1,46 @@
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConnectResultTest {
+
+    @Test
+    public void refusedConnectIsAnsweredWithConnectionRefused() throws Exception {
+        LoopbackProxy proxy = LoopbackProxy.start();
+        InetSocketAddress closedDestination;
+        try (ServerSocketChannel destination = LoopbackProxy.openDestination()) {
+            closedDestination = (InetSocketAddress) destination.getLocalAddress();
+        }
+        assertEquals(Socks5MessagesExplorer.getConnectionRefusedIndicator(),
+                proxy.getConnectReplyCode(closedDestination));
+    }
+
+    @Test
+    public void connectFailingAtOnceIsStillAnswered() throws Exception {
+        LoopbackProxy proxy = LoopbackProxy.start();
+        InetSocketAddress multicastDestination = new InetSocketAddress("224.0.0.1", 80);
+        assertEquals(Socks5MessagesExplorer.getGeneralFailureIndicator(),
+                proxy.getConnectReplyCode(multicastDestination));
+    }
+
+    @Test
+    public void finishedConnectsAreNoLongerPending() throws Exception {
+        int adminConsolePort = LoopbackProxy.findFreePort();
+        LoopbackProxy proxy = LoopbackProxy.start("-a", Integer.toString(adminConsolePort));
+        try (ServerSocketChannel destination = LoopbackProxy.openDestination()) {
+            InetSocketAddress destinationAddress = (InetSocketAddress) destination.getLocalAddress();
+            for (int i = 0; i < 20; ++i) {
+                SocketChannel tunnel = proxy.openTunnel(destinationAddress);
+                destination.accept().close();
+                tunnel.close();
+            }
+        }
+        String metrics = LoopbackProxy.queryAdminConsole(adminConsolePort, "metrics");
+        assertTrue(metrics.contains("connects_pending 0\n"), metrics);
+    }
+}
@@ -0,0 +1,98 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DNSCacheTest {
+    private static final long TTL_MILLIS = 300_000;
+    private static final long STALE_SERVING_LIMIT_MILLIS = 600_000;
+
+    @Test
+    public void snapshotRoundTripKeepsAddressesAndRemainingTtls() throws IOException {
+        long currentTimeMillis = System.currentTimeMillis();
+        DNSCache cache = new DNSCache();
+        cache.put("example.com", address(93, 184, 216, 34), TTL_MILLIS, currentTimeMillis);
+        cache.put("stale.example.com", address(10, 0, 0, 1), -1000, currentTimeMillis);
+        cache.put("gone.example.com", address(10, 0, 0, 2), -STALE_SERVING_LIMIT_MILLIS - 1000, currentTimeMillis);
+        Path snapshotPath = Files.createTempFile("dns-cache", ".bin");
+        try {
+            cache.saveSnapshot(snapshotPath);
+            DNSCache warmedCache = new DNSCache();
+            assertEquals(2, warmedCache.loadSnapshot(snapshotPath));
+
+            long loadTimeMillis = System.currentTimeMillis();
+            DNSCacheEntry fresh = warmedCache.lookup("example.com", loadTimeMillis);
+            assertNotNull(fresh);
+            assertEquals(address(93, 184, 216, 34), fresh.getAddress());
+            assertFalse(fresh.isExpired(loadTimeMillis));
+            assertTrue(Math.abs(fresh.getExpiresAtMillis() - (currentTimeMillis + TTL_MILLIS)) < 5000);
+
+            DNSCacheEntry stale = warmedCache.lookup("stale.example.com", loadTimeMillis);
+            assertNotNull(stale);
+            assertTrue(stale.isExpired(loadTimeMillis));
+            assertNull(warmedCache.lookup("gone.example.com", loadTimeMillis));
+        } finally {
+            Files.deleteIfExists(snapshotPath);
+        }
+    }
+
+    @Test
+    public void rejectsForeignAndTruncatedSnapshots() throws IOException {
+        DNSCache cache = new DNSCache();
+        cache.put("example.com", address(93, 184, 216, 34), TTL_MILLIS, System.currentTimeMillis());
+        Path snapshotPath = Files.createTempFile("dns-cache", ".bin");
+        try {
+            Files.write(snapshotPath, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+            assertThrows(IOException.class, () -> new DNSCache().loadSnapshot(snapshotPath));
+
+            cache.saveSnapshot(snapshotPath);
+            byte[] snapshot = Files.readAllBytes(snapshotPath);
+            Files.write(snapshotPath, Arrays.copyOf(snapshot, snapshot.length - 3));
+            assertThrows(IOException.class, () -> new DNSCache().loadSnapshot(snapshotPath));
+        } finally {
+            Files.deleteIfExists(snapshotPath);
+        }
+    }
+
+    @Test
+    public void servesExpiredEntryOnlyWithinStaleLimit() throws IOException {
+        DNSCache cache = new DNSCache();
+        cache.put("example.com", address(93, 184, 216, 34), TTL_MILLIS, 0);
+
+        assertFalse(cache.lookup("example.com", TTL_MILLIS - 1).isExpired(TTL_MILLIS - 1));
+        assertTrue(cache.lookup("example.com", TTL_MILLIS).isExpired(TTL_MILLIS));
+        assertNull(cache.lookup("example.com", TTL_MILLIS + STALE_SERVING_LIMIT_MILLIS));
+        assertNull(cache.lookup("example.com", 0));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntryWhenFull() throws IOException {
+        DNSCache cache = new DNSCache();
+        for (int i = 0; i < DNSCache.MAX_ENTRIES_NUMBER; ++i) {
+            cache.put("host" + i, address(10, 0, 0, 1), TTL_MILLIS, 0);
+        }
+        assertNotNull(cache.lookup("host0", 1));
+        cache.put("new", address(10, 0, 0, 2), TTL_MILLIS, 1);
+
+        assertNotNull(cache.lookup("host0", 2));
+        assertNotNull(cache.lookup("new", 2));
+        assertNull(cache.lookup("host1", 2));
+        StringBuilder metrics = new StringBuilder();
+        cache.appendMetrics(metrics);
+        assertTrue(metrics.toString().contains("dns_cache_entries " + DNSCache.MAX_ENTRIES_NUMBER + "\n"));
+    }
+
+    private static InetAddress address(int a, int b, int c, int d) throws IOException {
+        return InetAddress.getByAddress(new byte[]{(byte) a, (byte) b, (byte) c, (byte) d});
+    }
+}
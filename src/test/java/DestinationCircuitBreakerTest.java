@@ -0,0 +1,101 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DestinationCircuitBreakerTest {
+    private static final String DESTINATION = "192.0.2.1:80";
+    private static final long CONNECT_TIMEOUT_MILLIS = 10_000;
+
+    private static final byte SUCCEEDED = Socks5MessagesExplorer.getSucceededIndicator();
+    private static final byte REFUSED = Socks5MessagesExplorer.getConnectionRefusedIndicator();
+    private static final byte HOST_UNREACHABLE = Socks5MessagesExplorer.getHostUnreachableIndicator();
+
+    @Test
+    public void staysClosedBelowFailuresThreshold() {
+        DestinationCircuitBreaker circuitBreaker = new DestinationCircuitBreaker(CONNECT_TIMEOUT_MILLIS);
+        for (int i = 1; i < DestinationCircuitBreaker.FAILURES_THRESHOLD; ++i) {
+            circuitBreaker.recordFailure(DESTINATION, REFUSED, 0);
+        }
+        assertEquals(SUCCEEDED, circuitBreaker.checkConnectAllowed(DESTINATION, 0));
+
+        circuitBreaker.recordSuccess(DESTINATION);
+        for (int i = 1; i < DestinationCircuitBreaker.FAILURES_THRESHOLD; ++i) {
+            circuitBreaker.recordFailure(DESTINATION, REFUSED, 0);
+        }
+        assertEquals(SUCCEEDED, circuitBreaker.checkConnectAllowed(DESTINATION, 0));
+    }
+
+    @Test
+    public void opensForAtLeastConnectTimeoutAndAnswersWithLastFailure() {
+        DestinationCircuitBreaker circuitBreaker = this.openCircuit(HOST_UNREACHABLE, 0);
+
+        assertEquals(HOST_UNREACHABLE, circuitBreaker.checkConnectAllowed(DESTINATION, 1));
+        assertEquals(HOST_UNREACHABLE, circuitBreaker.checkConnectAllowed(DESTINATION, CONNECT_TIMEOUT_MILLIS - 1));
+        assertEquals(SUCCEEDED, circuitBreaker.checkConnectAllowed(DESTINATION, CONNECT_TIMEOUT_MILLIS));
+        assertEquals(SUCCEEDED, circuitBreaker.checkConnectAllowed("192.0.2.2:80", 1));
+    }
+
+    @Test
+    public void keepsMinimumOpenPeriodWhenConnectTimeoutIsShorter() {
+        DestinationCircuitBreaker circuitBreaker = new DestinationCircuitBreaker(1000);
+        for (int i = 0; i < DestinationCircuitBreaker.FAILURES_THRESHOLD; ++i) {
+            circuitBreaker.recordFailure(DESTINATION, REFUSED, 0);
+        }
+        assertEquals(REFUSED, circuitBreaker.checkConnectAllowed(DESTINATION, 4999));
+        assertEquals(SUCCEEDED, circuitBreaker.checkConnectAllowed(DESTINATION, 5000));
+    }
+
+    @Test
+    public void letsOneProbeThroughAndClosesOnItsSuccess() {
+        DestinationCircuitBreaker circuitBreaker = this.openCircuit(REFUSED, 0);
+
+        assertEquals(SUCCEEDED, circuitBreaker.checkConnectAllowed(DESTINATION, CONNECT_TIMEOUT_MILLIS));
+        assertEquals(REFUSED, circuitBreaker.checkConnectAllowed(DESTINATION, CONNECT_TIMEOUT_MILLIS + 1));
+        circuitBreaker.recordSuccess(DESTINATION);
+        assertEquals(SUCCEEDED, circuitBreaker.checkConnectAllowed(DESTINATION, CONNECT_TIMEOUT_MILLIS + 2));
+    }
+
+    @Test
+    public void reopensForTwiceAsLongWhenProbeFails() {
+        DestinationCircuitBreaker circuitBreaker = this.openCircuit(REFUSED, 0);
+        long probeMillis = CONNECT_TIMEOUT_MILLIS;
+        assertEquals(SUCCEEDED, circuitBreaker.checkConnectAllowed(DESTINATION, probeMillis));
+        circuitBreaker.recordFailure(DESTINATION, REFUSED, probeMillis);
+
+        assertEquals(REFUSED, circuitBreaker.checkConnectAllowed(DESTINATION, probeMillis + 2 * CONNECT_TIMEOUT_MILLIS - 1));
+        assertEquals(SUCCEEDED, circuitBreaker.checkConnectAllowed(DESTINATION, probeMillis + 2 * CONNECT_TIMEOUT_MILLIS));
+    }
+
+    @Test
+    public void replacesUnansweredProbeOnlyAfterConnectTimeout() {
+        DestinationCircuitBreaker circuitBreaker = this.openCircuit(HOST_UNREACHABLE, 0);
+        long probeMillis = CONNECT_TIMEOUT_MILLIS;
+        assertEquals(SUCCEEDED, circuitBreaker.checkConnectAllowed(DESTINATION, probeMillis));
+
+        assertEquals(HOST_UNREACHABLE,
+                circuitBreaker.checkConnectAllowed(DESTINATION, probeMillis + CONNECT_TIMEOUT_MILLIS - 1));
+        assertEquals(SUCCEEDED, circuitBreaker.checkConnectAllowed(DESTINATION, probeMillis + CONNECT_TIMEOUT_MILLIS));
+    }
+
+    @Test
+    public void reportsOpenCircuitsAndFastFailures() {
+        DestinationCircuitBreaker circuitBreaker = this.openCircuit(REFUSED, 0);
+        circuitBreaker.checkConnectAllowed(DESTINATION, 1);
+        circuitBreaker.checkConnectAllowed(DESTINATION, CONNECT_TIMEOUT_MILLIS);
+
+        StringBuilder metrics = new StringBuilder();
+        circuitBreaker.appendMetrics(metrics);
+        assertEquals("circuit_breaker_tracked_destinations 1\n"
+                + "circuit_breaker_open_circuits 1\n"
+                + "circuit_breaker_fast_failures 1\n"
+                + "circuit_breaker_probes 1\n", metrics.toString());
+    }
+
+    private DestinationCircuitBreaker openCircuit(byte replyCode, long currentTimeMillis) {
+        DestinationCircuitBreaker circuitBreaker = new DestinationCircuitBreaker(CONNECT_TIMEOUT_MILLIS);
+        for (int i = 0; i < DestinationCircuitBreaker.FAILURES_THRESHOLD; ++i) {
+            circuitBreaker.recordFailure(DESTINATION, replyCode, currentTimeMillis);
+        }
+        return circuitBreaker;
+    }
+}
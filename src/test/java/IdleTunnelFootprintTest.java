@@ -0,0 +1,73 @@
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Heap held by the proxy for established tunnels that relay nothing. The test process also holds both ends of
+ * every tunnel, so the same number of direct loopback connections is measured first and subtracted.
+ */
+public class IdleTunnelFootprintTest {
+    private static final Logger logger = LogManager.getLogger(IdleTunnelFootprintTest.class);
+
+    private static final int TUNNELS_NUMBER = 2000;
+    private static final int WARM_UP_TUNNELS_NUMBER = 200;
+    private static final long MAX_BYTES_PER_IDLE_TUNNEL = 4096;
+
+    @Test
+    public void idleTunnelStaysWithinFootprintBudget() throws Exception {
+        LoopbackProxy proxy = LoopbackProxy.start();
+        List<Closeable> sockets = new ArrayList<>();
+        try (ServerSocketChannel destination = LoopbackProxy.openDestination()) {
+            InetSocketAddress destinationAddress = (InetSocketAddress) destination.getLocalAddress();
+            for (int i = 0; i < WARM_UP_TUNNELS_NUMBER; ++i) {
+                SocketChannel tunnel = proxy.openTunnel(destinationAddress);
+                destination.accept().close();
+                tunnel.close();
+            }
+
+            long initialHeapBytes = getUsedHeapBytesAfterGc();
+            for (int i = 0; i < TUNNELS_NUMBER; ++i) {
+                sockets.add(SocketChannel.open(destinationAddress));
+                sockets.add(destination.accept());
+            }
+            long directHeapBytes = getUsedHeapBytesAfterGc();
+            for (int i = 0; i < TUNNELS_NUMBER; ++i) {
+                sockets.add(proxy.openTunnel(destinationAddress));
+                sockets.add(destination.accept());
+            }
+            long tunnelsHeapBytes = getUsedHeapBytesAfterGc();
+
+            long directConnectionBytes = (directHeapBytes - initialHeapBytes) / TUNNELS_NUMBER;
+            long bytesPerIdleTunnel = (tunnelsHeapBytes - directHeapBytes) / TUNNELS_NUMBER - directConnectionBytes;
+            logger.info("Idle tunnel footprint: " + bytesPerIdleTunnel + " bytes of proxy heap per tunnel, "
+                    + directConnectionBytes + " bytes per direct loopback connection pair");
+            assertTrue(bytesPerIdleTunnel <= MAX_BYTES_PER_IDLE_TUNNEL,
+                    "Idle tunnel takes " + bytesPerIdleTunnel + " bytes");
+        } finally {
+            for (Closeable socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private static long getUsedHeapBytesAfterGc() throws InterruptedException {
+        long usedHeapBytes = Long.MAX_VALUE;
+        for (int i = 0; i < 5; ++i) {
+            System.gc();
+            Thread.sleep(100);
+            usedHeapBytes = Math.min(usedHeapBytes,
+                    ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        }
+        return usedHeapBytes;
+    }
+}
@@ -0,0 +1,190 @@
+import org.apache.commons.cli.ParseException;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Proxy started in-process on a free loopback port, its selector loop runs on a daemon thread.
+ */
+public class LoopbackProxy {
+    private static final Logger logger = LogManager.getLogger(LoopbackProxy.class);
+
+    private static final String LOOPBACK_ADDRESS = "127.0.0.1";
+    private static final long START_TIMEOUT_MILLIS = 10_000;
+    private static final int CONNECT_REPLY_SIZE = 10;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int ADMIN_READ_TIMEOUT_MILLIS = 5000;
+
+    private final InetSocketAddress proxyAddress;
+    private final Thread loopThread;
+
+    private LoopbackProxy(InetSocketAddress proxyAddress, Thread loopThread) {
+        this.proxyAddress = proxyAddress;
+        this.loopThread = loopThread;
+    }
+
+    /**
+     * Starts a proxy with the given command line options on top of the defaults.
+     */
+    public static LoopbackProxy start(String... options) throws IOException, ParseException, InterruptedException {
+        int proxyPort = findFreePort();
+        List<String> args = new ArrayList<>(List.of("-p", Integer.toString(proxyPort)));
+        args.addAll(List.of(options));
+        CmdArgsParser cmdArgsParser = new CmdArgsParser();
+        cmdArgsParser.parseArguments(args.toArray(new String[0]));
+        Thread loopThread = new Thread(() -> new Socks5ProxyServer().start(cmdArgsParser.getProxyServerSettings()),
+                "proxy-loop-" + proxyPort);
+        loopThread.setDaemon(true);
+        loopThread.start();
+        LoopbackProxy proxy = new LoopbackProxy(new InetSocketAddress(LOOPBACK_ADDRESS, proxyPort), loopThread);
+        proxy.awaitListening();
+        return proxy;
+    }
+
+    public static ServerSocketChannel openDestination() throws IOException {
+        ServerSocketChannel destination = ServerSocketChannel.open();
+        destination.bind(new InetSocketAddress(LOOPBACK_ADDRESS, 0), 4096);
+        return destination;
+    }
+
+    public Thread getLoopThread() {
+        return loopThread;
+    }
+
+    public SocketChannel openClientConnection() throws IOException {
+        return SocketChannel.open(this.proxyAddress);
+    }
+
+    /**
+     * Opens a blocking tunnel to an IPv4 destination and returns it once the proxy has answered with success.
+     */
+    public SocketChannel openTunnel(InetSocketAddress destination) throws IOException {
+        SocketChannel tunnel = this.openClientConnection();
+        try {
+            byte replyCode = requestConnect(tunnel, destination);
+            if (replyCode != 0) {
+                throw new IOException("Proxy answered CONNECT with " + replyCode);
+            }
+            return tunnel;
+        } catch (IOException e) {
+            tunnel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the reply code the proxy answers a CONNECT to an IPv4 destination with.
+     */
+    public byte getConnectReplyCode(InetSocketAddress destination) throws IOException {
+        try (SocketChannel tunnel = this.openClientConnection()) {
+            return requestConnect(tunnel, destination);
+        }
+    }
+
+    /**
+     * Greets the proxy over the given connection, asks it to CONNECT to an IPv4 destination and returns the reply code.
+     */
+    public static byte requestConnect(SocketChannel tunnel, InetSocketAddress destination) throws IOException {
+        tunnel.write(ByteBuffer.wrap(new byte[]{5, 1, 0}));
+        ByteBuffer methodReply = readFully(tunnel, 2);
+        if (methodReply.get(1) != 0) {
+            throw new IOException("Proxy refused the authentication method");
+        }
+        ByteBuffer request = ByteBuffer.allocate(CONNECT_REPLY_SIZE);
+        request.put(new byte[]{5, 1, 0, 1})
+                .put(destination.getAddress().getAddress())
+                .putShort((short) destination.getPort())
+                .flip();
+        tunnel.write(request);
+        return readFully(tunnel, CONNECT_REPLY_SIZE).get(1);
+    }
+
+    /**
+     * Sends one command to the admin console and returns its whole answer.
+     */
+    public static String queryAdminConsole(int adminConsolePort, String command) throws IOException {
+        try (Socket admin = new Socket(LOOPBACK_ADDRESS, adminConsolePort)) {
+            admin.setSoTimeout(ADMIN_READ_TIMEOUT_MILLIS);
+            admin.getOutputStream().write((command + "\n").getBytes(StandardCharsets.US_ASCII));
+            return new String(admin.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    public static ByteBuffer readFully(SocketChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Connection closed after " + buffer.position() + " of " + length + " bytes");
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Sends the given number of bytes from one channel while receiving them on the other.
+     */
+    public static void transfer(SocketChannel from, SocketChannel to, long bytesNumber) throws InterruptedException,
+            IOException {
+        Thread sender = new Thread(() -> {
+            ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            try {
+                for (long sentBytesNumber = 0; sentBytesNumber < bytesNumber; ) {
+                    chunk.clear().limit((int) Math.min(CHUNK_SIZE, bytesNumber - sentBytesNumber));
+                    sentBytesNumber += from.write(chunk);
+                }
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+            }
+        }, "bulk-sender");
+        sender.start();
+        ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        long receivedBytesNumber = 0;
+        while (receivedBytesNumber < bytesNumber) {
+            chunk.clear();
+            int readBytesNumber = to.read(chunk);
+            if (readBytesNumber < 0) {
+                break;
+            }
+            receivedBytesNumber += readBytesNumber;
+        }
+        sender.join();
+        assertEquals(bytesNumber, receivedBytesNumber);
+    }
+
+    /**
+     * Waits for an answered greeting rather than an accepted connect, so every listener is set up by then.
+     */
+    private void awaitListening() throws IOException, InterruptedException {
+        long deadlineMillis = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (true) {
+            try (SocketChannel probe = SocketChannel.open(this.proxyAddress)) {
+                probe.write(ByteBuffer.wrap(new byte[]{5, 1, 0}));
+                readFully(probe, 2);
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() >= deadlineMillis || !this.loopThread.isAlive()) {
+                    throw new IOException("Proxy did not start listening on " + this.proxyAddress, e);
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    public static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
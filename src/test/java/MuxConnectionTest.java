@@ -0,0 +1,178 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Speaks the multiplexing protocol to a proxy from a raw socket, as a peer proxy would.
+ */
+public class MuxConnectionTest {
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+    private static final int QUIET_PERIOD_MILLIS = 300;
+    private static final int STREAM_ID = 1;
+
+    private LoopbackProxy proxy;
+    private int muxPort;
+    private ServerSocketChannel destination;
+    private Socket peer;
+
+    @BeforeEach
+    public void startProxy() throws Exception {
+        this.muxPort = LoopbackProxy.findFreePort();
+        this.proxy = LoopbackProxy.start("-m", Integer.toString(this.muxPort));
+        this.destination = LoopbackProxy.openDestination();
+        this.peer = this.connectPeer();
+    }
+
+    @AfterEach
+    public void closeSockets() throws IOException {
+        this.peer.close();
+        this.destination.close();
+    }
+
+    @Test
+    public void opensStreamAndRelaysWithinWindow() throws Exception {
+        this.sendOpenFrame(STREAM_ID);
+        assertOpenResult(this.readFrame(), (byte) 0);
+        try (SocketChannel remoteHost = this.destination.accept()) {
+            byte[] request = "request".getBytes(StandardCharsets.US_ASCII);
+            this.sendFrame(MuxFrameType.DATA, STREAM_ID, request);
+            assertArrayEquals(request, LoopbackProxy.readFully(remoteHost, request.length).array());
+            Frame windowUpdate = this.readFrame();
+            assertEquals(MuxFrameType.WINDOW_UPDATE, windowUpdate.type);
+            assertArrayEquals(intPayload(request.length), windowUpdate.payload);
+
+            remoteHost.write(ByteBuffer.allocate(4 * MuxStream.STREAM_WINDOW));
+            assertEquals(MuxStream.STREAM_WINDOW, this.readDataUntilQuiet(STREAM_ID));
+            this.sendFrame(MuxFrameType.WINDOW_UPDATE, STREAM_ID, intPayload(MuxStream.STREAM_WINDOW / 2));
+            assertEquals(MuxStream.STREAM_WINDOW / 2, this.readDataUntilQuiet(STREAM_ID));
+        }
+    }
+
+    @Test
+    public void closesConnectionOnControlFrameOfWrongSize() throws Exception {
+        this.sendFrame(MuxFrameType.OPEN_RESULT, STREAM_ID, new byte[0]);
+        this.assertClosedByProxy();
+
+        this.peer = this.connectPeer();
+        this.sendFrame(MuxFrameType.WINDOW_UPDATE, STREAM_ID, new byte[2]);
+        this.assertClosedByProxy();
+
+        this.peer = this.connectPeer();
+        this.sendFrame(MuxFrameType.OPEN, STREAM_ID, new byte[4]);
+        this.assertClosedByProxy();
+
+        this.peer = this.connectPeer();
+        this.sendFrame(MuxFrameType.CLOSE, STREAM_ID, new byte[1]);
+        this.assertClosedByProxy();
+
+        this.proxy.openTunnel((InetSocketAddress) this.destination.getLocalAddress()).close();
+    }
+
+    @Test
+    public void closesConnectionOnSecondOpenOfSameStream() throws Exception {
+        this.sendOpenFrame(STREAM_ID);
+        assertOpenResult(this.readFrame(), (byte) 0);
+        this.sendOpenFrame(STREAM_ID);
+        this.assertClosedByProxy();
+    }
+
+    @Test
+    public void closesConnectionOnWindowUpdateBeyondInitialWindow() throws Exception {
+        this.sendOpenFrame(STREAM_ID);
+        assertOpenResult(this.readFrame(), (byte) 0);
+        this.sendFrame(MuxFrameType.WINDOW_UPDATE, STREAM_ID, intPayload(1));
+        this.assertClosedByProxy();
+    }
+
+    private Socket connectPeer() throws IOException {
+        Socket socket = new Socket("127.0.0.1", this.muxPort);
+        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        return socket;
+    }
+
+    private void sendOpenFrame(int streamId) throws IOException {
+        InetSocketAddress destinationAddress = (InetSocketAddress) this.destination.getLocalAddress();
+        ByteBuffer payload = ByteBuffer.allocate(6)
+                .put(destinationAddress.getAddress().getAddress())
+                .putShort((short) destinationAddress.getPort());
+        this.sendFrame(MuxFrameType.OPEN, streamId, payload.array());
+    }
+
+    private void sendFrame(MuxFrameType type, int streamId, byte[] payload) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(MuxConnection.FRAME_HEADER_SIZE + payload.length);
+        MuxConnection.putFrameHeader(frame, type, streamId, payload.length);
+        frame.put(payload);
+        this.peer.getOutputStream().write(frame.array());
+    }
+
+    private Frame readFrame() throws IOException {
+        DataInputStream input = new DataInputStream(this.peer.getInputStream());
+        MuxFrameType type = MuxFrameType.getTypeByCode(input.readByte());
+        int streamId = input.readInt();
+        byte[] payload = new byte[input.readInt()];
+        input.readFully(payload);
+        return new Frame(type, streamId, payload);
+    }
+
+    /**
+     * Returns the DATA payload bytes of a stream received until the proxy stops sending.
+     */
+    private int readDataUntilQuiet(int streamId) throws IOException {
+        int receivedBytesNumber = 0;
+        this.peer.setSoTimeout(QUIET_PERIOD_MILLIS);
+        try {
+            while (true) {
+                Frame frame = this.readFrame();
+                assertEquals(MuxFrameType.DATA, frame.type);
+                assertEquals(streamId, frame.streamId);
+                receivedBytesNumber += frame.payload.length;
+            }
+        } catch (SocketTimeoutException e) {
+            return receivedBytesNumber;
+        } finally {
+            this.peer.setSoTimeout(READ_TIMEOUT_MILLIS);
+        }
+    }
+
+    private void assertClosedByProxy() throws IOException {
+        InputStream input = this.peer.getInputStream();
+        assertEquals(-1, input.read());
+        this.peer.close();
+    }
+
+    private static void assertOpenResult(Frame frame, byte responseType) {
+        assertEquals(MuxFrameType.OPEN_RESULT, frame.type);
+        assertEquals(STREAM_ID, frame.streamId);
+        assertArrayEquals(new byte[]{responseType}, frame.payload);
+    }
+
+    private static byte[] intPayload(int value) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+    }
+
+    private static class Frame {
+        private final MuxFrameType type;
+        private final int streamId;
+        private final byte[] payload;
+
+        private Frame(MuxFrameType type, int streamId, byte[] payload) {
+            this.type = type;
+            this.streamId = streamId;
+            this.payload = payload;
+        }
+    }
+}
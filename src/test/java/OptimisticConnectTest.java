@@ -0,0 +1,112 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Connects of the proxy are held pending by a destination whose accept queue is full: the kernel drops the SYN and
+ * retries it about a second later, by then the test has freed the queue or closed the destination.
+ */
+public class OptimisticConnectTest {
+    private static final String LOOPBACK_ADDRESS = "127.0.0.1";
+    private static final int STALLED_BACKLOG = 1;
+    private static final int MAX_ORDERING_ATTEMPTS = 50;
+
+    @Test
+    public void flushesDataSentBeforeConnectFinished() throws Exception {
+        int adminConsolePort = LoopbackProxy.findFreePort();
+        LoopbackProxy proxy = LoopbackProxy.start("-o", "-a", Integer.toString(adminConsolePort));
+        List<SocketChannel> queuedClients = new ArrayList<>();
+        try (ServerSocketChannel destination = openStalledDestination(queuedClients);
+             SocketChannel tunnel = proxy.openTunnel((InetSocketAddress) destination.getLocalAddress())) {
+            byte[] request = "request".getBytes(StandardCharsets.US_ASCII);
+            tunnel.write(ByteBuffer.wrap(request));
+            String metrics = LoopbackProxy.queryAdminConsole(adminConsolePort, "metrics");
+            assertTrue(metrics.contains("connects_pending 1\n"), metrics);
+
+            for (int i = 0; i < queuedClients.size(); ++i) {
+                destination.accept().close();
+            }
+            try (SocketChannel remoteHost = destination.accept()) {
+                assertArrayEquals(request, LoopbackProxy.readFully(remoteHost, request.length).array());
+                byte[] response = "response".getBytes(StandardCharsets.US_ASCII);
+                remoteHost.write(ByteBuffer.wrap(response));
+                assertArrayEquals(response, LoopbackProxy.readFully(tunnel, response.length).array());
+            }
+        } finally {
+            closeAll(queuedClients);
+        }
+    }
+
+    @Test
+    public void closesTunnelWhenConnectFailsAfterOptimisticReply() throws Exception {
+        LoopbackProxy proxy = LoopbackProxy.start("-o");
+        List<SocketChannel> queuedClients = new ArrayList<>();
+        ServerSocketChannel destination = openStalledDestination(queuedClients);
+        try (SocketChannel tunnel = proxy.openTunnel((InetSocketAddress) destination.getLocalAddress())) {
+            tunnel.write(ByteBuffer.wrap("request".getBytes(StandardCharsets.US_ASCII)));
+            destination.close();
+            assertThrows(IOException.class, () -> LoopbackProxy.readFully(tunnel, 1));
+        } finally {
+            destination.close();
+            closeAll(queuedClients);
+        }
+    }
+
+    /**
+     * A refused loopback connect completes in the iteration that also writes the optimistic reply, which of the two
+     * runs first follows the rotation of handshake events. A connection that only greets the proxy shifts the
+     * rotation, so the attempts soon cover a failure that comes before the reply.
+     */
+    @Test
+    public void answersWithFailureCodeWhenConnectFailsBeforeReply() throws Exception {
+        LoopbackProxy proxy = LoopbackProxy.start("-o");
+        boolean isFailureAnswered = false;
+        for (int i = 0; i < MAX_ORDERING_ATTEMPTS && !isFailureAnswered; ++i) {
+            InetSocketAddress closedDestination;
+            try (ServerSocketChannel destination = LoopbackProxy.openDestination()) {
+                closedDestination = (InetSocketAddress) destination.getLocalAddress();
+            }
+            try (SocketChannel greeting = proxy.openClientConnection()) {
+                greeting.write(ByteBuffer.wrap(new byte[]{5, 1, 0}));
+                LoopbackProxy.readFully(greeting, 2);
+            }
+            try (SocketChannel tunnel = proxy.openClientConnection()) {
+                byte replyCode = LoopbackProxy.requestConnect(tunnel, closedDestination);
+                if (Socks5MessagesExplorer.isResponseTypeSucceeded(replyCode)) {
+                    assertThrows(IOException.class, () -> LoopbackProxy.readFully(tunnel, 1));
+                } else {
+                    assertEquals(Socks5MessagesExplorer.getConnectionRefusedIndicator(), replyCode);
+                    isFailureAnswered = true;
+                }
+            }
+        }
+        assertTrue(isFailureAnswered, "No connect failed before its optimistic reply was written");
+    }
+
+    private static ServerSocketChannel openStalledDestination(List<SocketChannel> queuedClients) throws IOException {
+        ServerSocketChannel destination = ServerSocketChannel.open();
+        destination.bind(new InetSocketAddress(LOOPBACK_ADDRESS, 0), STALLED_BACKLOG);
+        for (int i = 0; i <= STALLED_BACKLOG; ++i) {
+            queuedClients.add(SocketChannel.open(destination.getLocalAddress()));
+        }
+        return destination;
+    }
+
+    private static void closeAll(List<SocketChannel> channels) throws IOException {
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+    }
+}
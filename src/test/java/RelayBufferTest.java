@@ -0,0 +1,125 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RelayBufferTest {
+    private static final int SEGMENT_CAPACITY = 1024;
+    private static final int MAX_SEGMENTS_NUMBER = 4;
+    private static final long SHRINK_AFTER_MILLIS = RelayBuffer.SHRINK_AFTER_MILLIS;
+
+    @Test
+    public void keepsBytesInOrderAcrossChainedSegments() {
+        RelayBufferPool pool = new RelayBufferPool(SEGMENT_CAPACITY, 16);
+        RelayBuffer buffer = new RelayBuffer(pool, MAX_SEGMENTS_NUMBER);
+        buffer.adaptCapacity(RelayStopReason.BLOCKED, 0);
+        byte[] data = new byte[2 * SEGMENT_CAPACITY];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+
+        assertEquals(data.length, buffer.readFrom(ByteBuffer.wrap(data), data.length));
+        assertTrue(buffer.isFull());
+        assertEquals(2, pool.getBorrowedBuffersNumber());
+        ByteBuffer target = ByteBuffer.allocate(data.length);
+        assertEquals(data.length, buffer.writeTo(target, data.length));
+        assertArrayEquals(data, target.array());
+        assertFalse(buffer.hasPendingData());
+        assertEquals(0, pool.getBorrowedBuffersNumber());
+    }
+
+    @Test
+    public void doublesSizeClassOnBlockedReadsUpToMaximum() {
+        RelayBufferPool pool = new RelayBufferPool(SEGMENT_CAPACITY, 16);
+        RelayBuffer buffer = new RelayBuffer(pool, MAX_SEGMENTS_NUMBER);
+        assertEquals(SEGMENT_CAPACITY, getCapacity(buffer));
+
+        buffer.adaptCapacity(RelayStopReason.BLOCKED, 0);
+        assertEquals(2 * SEGMENT_CAPACITY, getCapacity(buffer));
+        buffer.adaptCapacity(RelayStopReason.BLOCKED, 0);
+        assertEquals(4 * SEGMENT_CAPACITY, getCapacity(buffer));
+        buffer.adaptCapacity(RelayStopReason.BLOCKED, 0);
+        assertEquals(4 * SEGMENT_CAPACITY, getCapacity(buffer));
+        assertTrue(getMetrics(pool).contains("relay_buffer_class_grows 2\n"));
+    }
+
+    @Test
+    public void halvesSizeClassOnceNotFilledForShrinkPeriod() {
+        RelayBufferPool pool = new RelayBufferPool(SEGMENT_CAPACITY, 16);
+        RelayBuffer buffer = growToMaximum(pool, 0);
+
+        buffer.adaptCapacity(RelayStopReason.BUDGET_EXHAUSTED, SHRINK_AFTER_MILLIS);
+        buffer.adaptCapacity(RelayStopReason.DRAINED, SHRINK_AFTER_MILLIS - 1);
+        assertEquals(4 * SEGMENT_CAPACITY, getCapacity(buffer));
+        buffer.adaptCapacity(RelayStopReason.DRAINED, SHRINK_AFTER_MILLIS);
+        assertEquals(2 * SEGMENT_CAPACITY, getCapacity(buffer));
+        buffer.adaptCapacity(RelayStopReason.DRAINED, 2 * SHRINK_AFTER_MILLIS - 1);
+        assertEquals(2 * SEGMENT_CAPACITY, getCapacity(buffer));
+        buffer.adaptCapacity(RelayStopReason.DRAINED, 2 * SHRINK_AFTER_MILLIS);
+        assertEquals(SEGMENT_CAPACITY, getCapacity(buffer));
+        buffer.adaptCapacity(RelayStopReason.DRAINED, 10 * SHRINK_AFTER_MILLIS);
+        assertEquals(SEGMENT_CAPACITY, getCapacity(buffer));
+        assertTrue(getMetrics(pool).contains("relay_buffer_class_shrinks 2\n"));
+    }
+
+    @Test
+    public void blockedReadPostponesShrinking() {
+        RelayBufferPool pool = new RelayBufferPool(SEGMENT_CAPACITY, 16);
+        RelayBuffer buffer = growToMaximum(pool, 0);
+
+        buffer.adaptCapacity(RelayStopReason.BLOCKED, SHRINK_AFTER_MILLIS - 1);
+        buffer.adaptCapacity(RelayStopReason.DRAINED, SHRINK_AFTER_MILLIS);
+        assertEquals(4 * SEGMENT_CAPACITY, getCapacity(buffer));
+    }
+
+    @Test
+    public void neitherGrowsNorStaysGrownOverMemoryLimit() {
+        RelayBufferPool pool = new RelayBufferPool(SEGMENT_CAPACITY, 16, 4 * SEGMENT_CAPACITY);
+        RelayBuffer buffer = growToMaximum(pool, 0);
+        RelayBuffer otherBuffer = new RelayBuffer(pool, MAX_SEGMENTS_NUMBER);
+        otherBuffer.readFrom(ByteBuffer.allocate(SEGMENT_CAPACITY), SEGMENT_CAPACITY);
+        ByteBuffer[] borrowedBuffers = {pool.acquire(), pool.acquire(), pool.acquire()};
+
+        otherBuffer.adaptCapacity(RelayStopReason.BLOCKED, 0);
+        assertEquals(SEGMENT_CAPACITY, otherBuffer.getPendingBytesNumber());
+        assertTrue(otherBuffer.isFull());
+        buffer.adaptCapacity(RelayStopReason.DRAINED, 1);
+        assertEquals(2 * SEGMENT_CAPACITY, getCapacity(buffer));
+
+        for (ByteBuffer borrowedBuffer : borrowedBuffers) {
+            pool.release(borrowedBuffer);
+        }
+        buffer.adaptCapacity(RelayStopReason.DRAINED, 2);
+        assertEquals(2 * SEGMENT_CAPACITY, getCapacity(buffer));
+    }
+
+    private static RelayBuffer growToMaximum(RelayBufferPool pool, long currentTimeMillis) {
+        RelayBuffer buffer = new RelayBuffer(pool, MAX_SEGMENTS_NUMBER);
+        for (int segmentsLimit = 1; segmentsLimit < MAX_SEGMENTS_NUMBER; segmentsLimit *= 2) {
+            buffer.adaptCapacity(RelayStopReason.BLOCKED, currentTimeMillis);
+        }
+        assertEquals(MAX_SEGMENTS_NUMBER * SEGMENT_CAPACITY, getCapacity(buffer));
+        return buffer;
+    }
+
+    /**
+     * Returns how many bytes the empty buffer takes before it is full, leaving it empty again.
+     */
+    private static int getCapacity(RelayBuffer buffer) {
+        int capacity = 8 * SEGMENT_CAPACITY;
+        int filledBytesNumber = buffer.readFrom(ByteBuffer.allocate(capacity), capacity);
+        assertTrue(buffer.isFull());
+        assertEquals(filledBytesNumber, buffer.writeTo(ByteBuffer.allocate(capacity), capacity));
+        return filledBytesNumber;
+    }
+
+    private static String getMetrics(RelayBufferPool pool) {
+        StringBuilder metrics = new StringBuilder();
+        pool.appendMetrics(metrics);
+        return metrics.toString();
+    }
+}
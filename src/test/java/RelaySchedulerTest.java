@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RelaySchedulerTest {
+    private static final int QUANTUM_BYTES = 1000;
+
+    @Test
+    public void grantsOneQuantumToIdleDirection() {
+        RelayScheduler relayScheduler = new RelayScheduler(QUANTUM_BYTES);
+        assertEquals(QUANTUM_BYTES, relayScheduler.grantQuantum(0));
+    }
+
+    @Test
+    public void carriesOverdraftOfExhaustedBudgetIntoNextGrant() {
+        RelayScheduler relayScheduler = new RelayScheduler(QUANTUM_BYTES);
+        int deficit = relayScheduler.grantQuantum(0) - 1500;
+
+        deficit = relayScheduler.finishEvent(deficit, 1500, RelayStopReason.BUDGET_EXHAUSTED);
+        assertEquals(-500, deficit);
+        assertEquals(500, relayScheduler.grantQuantum(deficit));
+    }
+
+    @Test
+    public void forgetsDeficitOfDrainedOrBlockedDirection() {
+        RelayScheduler relayScheduler = new RelayScheduler(QUANTUM_BYTES);
+        assertEquals(0, relayScheduler.finishEvent(-300, 1300, RelayStopReason.DRAINED));
+        assertEquals(0, relayScheduler.finishEvent(400, 600, RelayStopReason.BLOCKED));
+        assertEquals(QUANTUM_BYTES, relayScheduler.grantQuantum(400));
+    }
+
+    @Test
+    public void givesBackloggedDirectionsEqualBytesOverRounds() {
+        RelayScheduler relayScheduler = new RelayScheduler(QUANTUM_BYTES);
+        int[] readSizes = {700, 4096};
+        int[] deficits = new int[readSizes.length];
+        long[] relayedBytes = new long[readSizes.length];
+        for (int round = 0; round < 1000; ++round) {
+            for (int direction = 0; direction < readSizes.length; ++direction) {
+                int deficit = relayScheduler.grantQuantum(deficits[direction]);
+                int eventBytesNumber = 0;
+                while (deficit > 0) {
+                    deficit -= readSizes[direction];
+                    eventBytesNumber += readSizes[direction];
+                }
+                relayedBytes[direction] += eventBytesNumber;
+                deficits[direction] = relayScheduler.finishEvent(deficit, eventBytesNumber,
+                        RelayStopReason.BUDGET_EXHAUSTED);
+            }
+        }
+        for (long directionBytes : relayedBytes) {
+            assertTrue(Math.abs(directionBytes - 1000L * QUANTUM_BYTES) <= 4096, Long.toString(directionBytes));
+        }
+        assertEquals(relayedBytes[0] + relayedBytes[1], relayScheduler.getRelayedBytesTotal());
+    }
+
+    @Test
+    public void countsEventsByStopReason() {
+        RelayScheduler relayScheduler = new RelayScheduler(QUANTUM_BYTES);
+        relayScheduler.finishEvent(0, 10, RelayStopReason.DRAINED);
+        relayScheduler.finishEvent(-10, 1010, RelayStopReason.BUDGET_EXHAUSTED);
+        relayScheduler.finishEvent(20, 30, RelayStopReason.BLOCKED);
+
+        StringBuilder metrics = new StringBuilder();
+        relayScheduler.appendMetrics(metrics);
+        assertEquals("relay_quantum_bytes 1000\n"
+                + "relay_read_events 3\n"
+                + "relay_read_events_drained 1\n"
+                + "relay_read_events_budget_exhausted 1\n"
+                + "relay_read_events_blocked 1\n"
+                + "relay_read_event_bytes_mean 350\n"
+                + "relay_read_event_bytes_max 1010\n", metrics.toString());
+    }
+}
@@ -0,0 +1,64 @@
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * CPU spent per GiB of the same loopback bulk transfer relayed through the NIO buffer path and, when the native
+ * library is loaded, through splice. The process figure includes the sending and receiving test threads, which do
+ * the same work for both transports; the loop thread figure is the proxy alone.
+ */
+public class RelayTransportCpuBenchmark {
+    private static final Logger logger = LogManager.getLogger(RelayTransportCpuBenchmark.class);
+
+    private static final long BYTES_IN_GIB = 1024 * 1024 * 1024;
+    private static final long WARM_UP_BYTES = 64 * 1024 * 1024;
+    private static final long TRANSFER_BYTES = BYTES_IN_GIB / 2;
+
+    @Test
+    public void reportsCpuPerGibOfEachTransport() throws Exception {
+        long nioNanosPerGib = this.measureRelayCpu("NIO");
+        if (LinuxNativeSockets.isAvailable()) {
+            long spliceNanosPerGib = this.measureRelayCpu("splice", "-z");
+            logger.info(String.format("splice takes %.2f of the NIO loop thread CPU per GiB",
+                    (double) spliceNanosPerGib / nioNanosPerGib));
+        } else {
+            logger.info("Native library is not loaded, splice relay is not measured");
+        }
+    }
+
+    /**
+     * Returns CPU nanoseconds the proxy loop thread spent per GiB.
+     */
+    private long measureRelayCpu(String transportName, String... proxyOptions) throws Exception {
+        LoopbackProxy proxy = LoopbackProxy.start(proxyOptions);
+        com.sun.management.OperatingSystemMXBean operatingSystem =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long loopThreadId = proxy.getLoopThread().getId();
+        try (ServerSocketChannel destination = LoopbackProxy.openDestination();
+             SocketChannel tunnel = proxy.openTunnel((InetSocketAddress) destination.getLocalAddress());
+             SocketChannel sink = destination.accept()) {
+            LoopbackProxy.transfer(tunnel, sink, WARM_UP_BYTES);
+
+            long processCpuNanosBefore = operatingSystem.getProcessCpuTime();
+            long loopCpuNanosBefore = threads.getThreadCpuTime(loopThreadId);
+            long startNanos = System.nanoTime();
+            LoopbackProxy.transfer(tunnel, sink, TRANSFER_BYTES);
+            long elapsedNanos = System.nanoTime() - startNanos;
+            long processNanosPerGib = (operatingSystem.getProcessCpuTime() - processCpuNanosBefore)
+                    * BYTES_IN_GIB / TRANSFER_BYTES;
+            long loopNanosPerGib = (threads.getThreadCpuTime(loopThreadId) - loopCpuNanosBefore)
+                    * BYTES_IN_GIB / TRANSFER_BYTES;
+
+            logger.info(String.format("%s relay: %d ms process CPU and %d ms loop thread CPU per GiB, %d MB/s",
+                    transportName, processNanosPerGib / 1_000_000, loopNanosPerGib / 1_000_000,
+                    TRANSFER_BYTES * 1000 / Math.max(1, elapsedNanos)));
+            return loopNanosPerGib;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SpaceSavingSketchTest {
+
+    @Test
+    public void countsExactlyWhileKeysFitIntoCapacity() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(4);
+        sketch.add("a", 5);
+        sketch.add("b", 1);
+        sketch.add("a", 2);
+        sketch.add("c", 3);
+
+        Map<String, HeavyHitter> counters = toMap(sketch.getCounters());
+        assertEquals(3, counters.size());
+        assertEquals(7, counters.get("a").getCount());
+        assertEquals(1, counters.get("b").getCount());
+        assertEquals(3, counters.get("c").getCount());
+        for (HeavyHitter counter : counters.values()) {
+            assertEquals(0, counter.getError());
+        }
+    }
+
+    @Test
+    public void newKeyReplacesMinimumCounterAndInheritsItsCountAsError() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(2);
+        sketch.add("a", 10);
+        sketch.add("b", 3);
+        sketch.add("c", 4);
+
+        Map<String, HeavyHitter> counters = toMap(sketch.getCounters());
+        assertEquals(2, counters.size());
+        assertEquals(10, counters.get("a").getCount());
+        assertEquals(7, counters.get("c").getCount());
+        assertEquals(3, counters.get("c").getError());
+    }
+
+    @Test
+    public void keepsEveryKeyAboveTheGuaranteeThresholdWithBoundedError() {
+        int capacity = 16;
+        SpaceSavingSketch sketch = new SpaceSavingSketch(capacity);
+        Map<String, Long> exactCounts = new HashMap<>();
+        Random random = new Random(42);
+        long total = 0;
+        for (int i = 0; i < 100_000; ++i) {
+            String key = random.nextInt(4) == 0 ? "hot" + random.nextInt(4) : "cold" + random.nextInt(10_000);
+            long weight = 1 + random.nextInt(1500);
+            sketch.add(key, weight);
+            exactCounts.merge(key, weight, Long::sum);
+            total += weight;
+        }
+
+        Map<String, HeavyHitter> counters = toMap(sketch.getCounters());
+        assertEquals(capacity, counters.size());
+        for (Map.Entry<String, Long> exactCount : exactCounts.entrySet()) {
+            if (exactCount.getValue() > total / capacity) {
+                assertNotNull(counters.get(exactCount.getKey()), exactCount.getKey() + " is missing");
+            }
+        }
+        for (HeavyHitter counter : counters.values()) {
+            long exactCount = exactCounts.get(counter.getKey());
+            assertTrue(counter.getCount() >= exactCount);
+            assertTrue(counter.getCount() - counter.getError() <= exactCount);
+            assertTrue(counter.getError() <= total / capacity);
+        }
+    }
+
+    @Test
+    public void clearForgetsAllKeys() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(2);
+        sketch.add("a", 1);
+        sketch.add("b", 1);
+        sketch.add("c", 1);
+        sketch.clear();
+        sketch.add("d", 2);
+
+        List<HeavyHitter> counters = sketch.getCounters();
+        assertEquals(1, counters.size());
+        assertEquals("d", counters.get(0).getKey());
+        assertEquals(2, counters.get(0).getCount());
+        assertEquals(0, counters.get(0).getError());
+    }
+
+    private static Map<String, HeavyHitter> toMap(List<HeavyHitter> counters) {
+        Map<String, HeavyHitter> countersByKeys = new HashMap<>();
+        for (HeavyHitter counter : counters) {
+            countersByKeys.put(counter.getKey(), counter);
+        }
+        return countersByKeys;
+    }
+}
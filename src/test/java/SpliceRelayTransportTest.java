@@ -0,0 +1,54 @@
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class SpliceRelayTransportTest {
+    private static final int CHUNK_SIZE = 100;
+    private static final long IDLE_PERIOD_MILLIS = 1000;
+
+    /**
+     * Small chunks take a pipe slot each, so the pipe of a stalled tunnel runs out of slots long before it holds
+     * its capacity in bytes. The direction must then stop reading instead of spinning on a readable socket, and
+     * resume once the remote host reads again.
+     */
+    @Test
+    public void stopsReadingWhenPipeRunsOutOfSlots() throws Exception {
+        assumeTrue(LinuxNativeSockets.isAvailable(), "native library is not loaded");
+        LoopbackProxy proxy = LoopbackProxy.start("-z");
+        try (ServerSocketChannel destination = LoopbackProxy.openDestination()) {
+            destination.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+            try (SocketChannel tunnel = proxy.openTunnel((InetSocketAddress) destination.getLocalAddress());
+                 SocketChannel stalledRemoteHost = destination.accept()) {
+                tunnel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                tunnel.configureBlocking(false);
+                long sentBytesNumber = 0;
+                ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+                int writtenBytesNumber;
+                while ((writtenBytesNumber = tunnel.write(chunk.clear())) > 0) {
+                    sentBytesNumber += writtenBytesNumber;
+                }
+
+                java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+                long loopThreadId = proxy.getLoopThread().getId();
+                long loopCpuNanosBefore = threads.getThreadCpuTime(loopThreadId);
+                Thread.sleep(IDLE_PERIOD_MILLIS);
+                long loopCpuMillis = TimeUnit.NANOSECONDS.toMillis(
+                        threads.getThreadCpuTime(loopThreadId) - loopCpuNanosBefore);
+
+                assertTrue(loopCpuMillis < IDLE_PERIOD_MILLIS / 10,
+                        "Loop thread spent " + loopCpuMillis + " ms of CPU on a stalled tunnel");
+                assertEquals(sentBytesNumber, LoopbackProxy.readFully(stalledRemoteHost, (int) sentBytesNumber).limit());
+            }
+        }
+    }
+}
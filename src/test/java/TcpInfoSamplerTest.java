@@ -0,0 +1,66 @@
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class TcpInfoSamplerTest {
+    private static final long SAMPLING_INTERVAL_MILLIS = 20;
+    private static final long METRICS_TIMEOUT_MILLIS = 5000;
+
+    @Test
+    public void samplesRegisteredSocketUntilDetached() throws Exception {
+        assumeTrue(LinuxNativeSockets.isAvailable(), "native library is not loaded");
+        TcpInfoSampler sampler = new TcpInfoSampler(SAMPLING_INTERVAL_MILLIS);
+        sampler.start();
+        try (ServerSocketChannel destination = LoopbackProxy.openDestination();
+             SocketChannel client = SocketChannel.open(destination.getLocalAddress());
+             SocketChannel remoteHost = destination.accept()) {
+            SocketTcpInfo tcpInfo = sampler.register(TunnelLeg.CLIENT, client);
+            assertNotNull(tcpInfo);
+            awaitMetricsLine(sampler, "tcp_info_client_sockets 1");
+
+            tcpInfo.detach();
+            awaitMetricsLine(sampler, "tcp_info_client_sockets 0");
+            assertFalse(tcpInfo.sample());
+            StringBuilder summary = new StringBuilder();
+            tcpInfo.appendSummary(summary);
+            assertTrue(summary.toString().contains("samples "), summary.toString());
+        }
+    }
+
+    @Test
+    public void tunnelsWorkWithoutSamplingWhenNativeLibraryIsMissing() throws Exception {
+        assumeFalse(LinuxNativeSockets.isAvailable(), "native library is loaded");
+        int adminConsolePort = LoopbackProxy.findFreePort();
+        LoopbackProxy proxy = LoopbackProxy.start("-T", "1", "-a", Integer.toString(adminConsolePort));
+        try (ServerSocketChannel destination = LoopbackProxy.openDestination();
+             SocketChannel tunnel = proxy.openTunnel((InetSocketAddress) destination.getLocalAddress());
+             SocketChannel remoteHost = destination.accept()) {
+            LoopbackProxy.transfer(tunnel, remoteHost, 1024);
+            LoopbackProxy.transfer(remoteHost, tunnel, 1024);
+        }
+        String metrics = LoopbackProxy.queryAdminConsole(adminConsolePort, "metrics");
+        assertFalse(metrics.contains("tcp_info_"), metrics);
+    }
+
+    private static void awaitMetricsLine(TcpInfoSampler sampler, String line) throws InterruptedException {
+        long deadlineMillis = System.currentTimeMillis() + METRICS_TIMEOUT_MILLIS;
+        StringBuilder metrics = new StringBuilder();
+        while (System.currentTimeMillis() < deadlineMillis) {
+            metrics.setLength(0);
+            sampler.appendMetrics(metrics);
+            if (metrics.indexOf(line + "\n") >= 0) {
+                return;
+            }
+            Thread.sleep(SAMPLING_INTERVAL_MILLIS);
+        }
+        throw new AssertionError("Metrics never showed " + line + ":\n" + metrics);
+    }
+}